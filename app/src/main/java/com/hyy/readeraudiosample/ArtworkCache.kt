@@ -0,0 +1,78 @@
+package com.hyy.readeraudiosample
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.net.Uri
+import android.util.LruCache
+import com.bumptech.glide.Glide
+import com.bumptech.glide.load.engine.DiskCacheStrategy
+import com.bumptech.glide.request.FutureTarget
+import com.bumptech.glide.request.RequestOptions
+
+/**
+ * Book covers, already downsampled to the size they are shown at, for the notification and the UI.
+ *
+ * Two tiers, both keyed by uri and target size:
+ * - an in-memory LRU bounded by the bytes of the bitmaps it holds, so re-showing the cover every
+ *   chapter of a book shares costs no decode at all;
+ * - Glide's resource disk cache ([DiskCacheStrategy.RESOURCE]), which stores the downsampled
+ *   thumbnail rather than the full-size original, so a cold start costs a small decode and no
+ *   network.
+ */
+class ArtworkCache private constructor(
+    context: Context,
+    val maxBytes: Int
+) {
+
+    private val appContext = context.applicationContext
+
+    private val memory = object : LruCache<String, Bitmap>(maxBytes) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.allocationByteCount
+    }
+
+    /**
+     * The cover of [uri] at [sizePx] if it is in memory, without touching disk or network.
+     */
+    fun get(uri: Uri, sizePx: Int): Bitmap? = memory.get(key(uri, sizePx))
+
+    /**
+     * Starts loading [uri] at [sizePx] from the resized disk tier or the network, bypassing the
+     * memory tier. The future can be cancelled; a completed one must not be cleared, since the
+     * bitmap may still be in use.
+     */
+    fun submit(uri: Uri, sizePx: Int): FutureTarget<Bitmap> =
+        Glide.with(appContext).asBitmap()
+            .apply(glideOptions)
+            .load(uri)
+            .submit(sizePx, sizePx)
+
+    fun put(uri: Uri, sizePx: Int, bitmap: Bitmap) {
+        memory.put(key(uri, sizePx), bitmap)
+    }
+
+    override fun toString(): String =
+        "ArtworkCache(used=${memory.size()}/$maxBytes, hits=${memory.hitCount()}, " +
+                "misses=${memory.missCount()}, evictions=${memory.evictionCount()})"
+
+    private fun key(uri: Uri, sizePx: Int) = "$uri@$sizePx"
+
+    companion object {
+        // About 50 notification-sized covers (144 × 144 × 4 bytes each).
+        const val DEFAULT_MAX_BYTES = 4 * 1024 * 1024
+
+        // Our own memory tier holds the exact bitmaps, so Glide's would only duplicate them.
+        private val glideOptions = RequestOptions()
+            .fallback(R.drawable.default_art)
+            .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+            .skipMemoryCache(true)
+
+        @Volatile
+        private var instance: ArtworkCache? = null
+
+        fun getInstance(context: Context) =
+            instance ?: synchronized(this) {
+                instance ?: ArtworkCache(context, DEFAULT_MAX_BYTES)
+                    .also { instance = it }
+            }
+    }
+}
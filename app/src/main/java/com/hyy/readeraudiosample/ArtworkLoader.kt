@@ -0,0 +1,78 @@
+package com.hyy.readeraudiosample
+
+import android.graphics.Bitmap
+import android.net.Uri
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Loads covers through an [ArtworkCache] without piling up work when the track changes quickly.
+ *
+ * Callers asking for the same cover at the same size share one download. A download runs only as
+ * long as somebody waits for it: once the last waiting coroutine is cancelled, the download is
+ * cancelled too, so a superseded request costs neither an IO thread nor bandwidth.
+ *
+ * [load] must always be called on the thread [scope] dispatches to, usually the main thread; the
+ * download itself runs on [fetchDispatcher].
+ */
+class ArtworkLoader(
+    private val cache: ArtworkCache,
+    private val scope: CoroutineScope,
+    private val fetchDispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
+
+    private class Download(val bitmap: Deferred<Bitmap?>) {
+        var waiters = 0
+    }
+
+    //uri@size -> 正在进行的下载，只在 scope 的线程访问
+    private val downloads = HashMap<String, Download>()
+
+    /**
+     * The cover of [uri] at [sizePx], or null if it can't be loaded. Returns immediately when it
+     * is in memory; otherwise joins the download already running for it or starts one.
+     */
+    suspend fun load(uri: Uri, sizePx: Int): Bitmap? {
+        cache.get(uri, sizePx)?.let { return it }
+        val key = "$uri@$sizePx"
+        val download = downloads.getOrPut(key) {
+            Download(scope.async(fetchDispatcher) { fetch(uri, sizePx) })
+        }
+        download.waiters++
+        try {
+            return download.bitmap.await()
+        } finally {
+            if (--download.waiters == 0) {
+                if (downloads[key] === download) downloads.remove(key)
+                // Nobody wants it any more: stop the download if it is still running.
+                download.bitmap.cancel()
+            }
+        }
+    }
+
+    private suspend fun fetch(uri: Uri, sizePx: Int): Bitmap? {
+        val future = cache.submit(uri, sizePx)
+        // Glide blocks in get(); cancelling the future is what wakes it up and stops the load.
+        val cancelHandle = coroutineContext[Job]?.invokeOnCompletion { cause ->
+            if (cause != null) future.cancel(true)
+        }
+        return try {
+            future.get()?.also { cache.put(uri, sizePx, it) }
+        } catch (e: ExecutionException) {
+            null
+        } catch (e: CancellationException) {
+            null
+        } catch (e: InterruptedException) {
+            null
+        } finally {
+            cancelHandle?.dispose()
+        }
+    }
+}
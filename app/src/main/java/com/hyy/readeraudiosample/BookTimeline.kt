@@ -0,0 +1,97 @@
+package com.hyy.readeraudiosample
+
+/**
+ * The whole book on one time axis: chapter durations in a Fenwick tree, so a book position maps
+ * to a chapter and back in O(log n), and a chapter's duration can be corrected in O(log n) once
+ * the real one is known.
+ *
+ * Chapters are addressed by chapter index, like in [ChapterPlaylist]. Inserting or removing
+ * chapters means building a new timeline, which is O(n). Not thread-safe.
+ */
+class BookTimeline(durationsMs: LongArray) {
+
+    private val durations = durationsMs.copyOf()
+
+    //树状数组，下标从 1 开始：tree[i] 是 (i - lowbit(i), i] 这些章节的时长之和
+    private val tree = LongArray(durations.size + 1)
+
+    //不大于章节数的最大的 2 的幂，locate 时从它开始往下找
+    private val highestBit = if (durations.isEmpty()) 0 else Integer.highestOneBit(durations.size)
+
+    init {
+        // O(n) build: every node passes its sum on to its parent once.
+        for (i in 1..durations.size) {
+            tree[i] += durations[i - 1]
+            val parent = i + (i and -i)
+            if (parent <= durations.size) tree[parent] += tree[i]
+        }
+    }
+
+    val size: Int get() = durations.size
+
+    var totalMs = durations.sum()
+        private set
+
+    fun durationMs(chapterIndex: Int): Long = durations[chapterIndex]
+
+    /**
+     * Replaces the duration of [chapterIndex], e.g. with the one the player measured.
+     *
+     * @return whether it changed.
+     */
+    fun setDurationMs(chapterIndex: Int, durationMs: Long): Boolean {
+        val delta = durationMs - durations[chapterIndex]
+        if (delta == 0L) return false
+        durations[chapterIndex] = durationMs
+        totalMs += delta
+        var i = chapterIndex + 1
+        while (i <= durations.size) {
+            tree[i] += delta
+            i += i and -i
+        }
+        return true
+    }
+
+    /**
+     * Book position at which [chapterIndex] starts; [size] gives the end of the book.
+     */
+    fun startOf(chapterIndex: Int): Long {
+        var sum = 0L
+        var i = chapterIndex
+        while (i > 0) {
+            sum += tree[i]
+            i -= i and -i
+        }
+        return sum
+    }
+
+    /**
+     * The chapter playing at book position [positionMs], the one that starts at or before it and
+     * ends after it. Negative positions count as 0, positions past the end fall into the last
+     * chapter. Returns -1 for an empty book.
+     */
+    fun chapterAt(positionMs: Long): Int {
+        if (durations.isEmpty()) return -1
+        // Walks down the tree, taking every node that still ends at or before positionMs.
+        var index = 0
+        var remaining = positionMs.coerceAtLeast(0)
+        var bit = highestBit
+        while (bit != 0) {
+            val next = index + bit
+            if (next <= durations.size && tree[next] <= remaining) {
+                index = next
+                remaining -= tree[next]
+            }
+            bit = bit ushr 1
+        }
+        return index.coerceAtMost(durations.size - 1)
+    }
+
+    /**
+     * Where in [chapterAt] the book position [positionMs] is, clamped to that chapter.
+     */
+    fun offsetInChapter(chapterIndex: Int, positionMs: Long): Long =
+        (positionMs - startOf(chapterIndex)).coerceIn(0, durations[chapterIndex])
+
+    override fun toString(): String = "BookTimeline(chapters=$size, totalMs=$totalMs)"
+}
@@ -0,0 +1,198 @@
+package com.hyy.readeraudiosample
+
+/**
+ * When to load for spoken-word audio: in long bursts, then not at all for minutes, so the radio
+ * can drop to idle between bursts instead of waking up for every few seconds of audio.
+ *
+ * Loading starts when the buffer, in wall-clock time at the current playback speed, drops below
+ * [Policy.lowWatermarkMs], and goes on until it reaches [Policy.highWatermarkMs] or
+ * [Policy.maxBytes] are held. Speech is cheap per minute, so the watermarks are far apart and the
+ * byte cap is what bounds memory.
+ *
+ * It also keeps what tuning needs: how long loading was on and off, burst by burst, and how full
+ * the buffer is. Calls come from the player's internal thread, reads from anywhere.
+ */
+class BurstBuffer(
+    @Volatile var policy: Policy,
+    private val clock: () -> Long
+) {
+
+    class Policy(
+        val name: String,
+        //缓冲（按倍速换算成实际时间）低于它就开始一轮加载
+        val lowWatermarkMs: Long,
+        //一轮加载到这么多为止
+        val highWatermarkMs: Long,
+        val maxBytes: Int,
+        val bufferForPlaybackMs: Long,
+        val bufferForPlaybackAfterRebufferMs: Long
+    ) {
+        override fun toString(): String = name
+    }
+
+    private var loading = false
+    //上次更新统计的时间，停止后清掉，停着的时间不算
+    private var lastUpdateMs = NO_TIME
+    private var phaseStartMs = NO_TIME
+
+    var bursts = 0L
+        @Synchronized get
+        private set
+
+    var loadingMs = 0L
+        @Synchronized get
+        private set
+
+    var idleMs = 0L
+        @Synchronized get
+        private set
+
+    private val burstHistogram = Histogram(DURATION_BOUNDS_MS)
+    private val sleepHistogram = Histogram(DURATION_BOUNDS_MS)
+
+    @Volatile
+    var bufferedMs = 0L
+        private set
+
+    @Volatile
+    var allocatedBytes = 0
+        private set
+
+    @Volatile
+    var peakBytes = 0
+        private set
+
+    /** Share of the time loading was on, in permille. */
+    val radioOnPermille: Long
+        @Synchronized get() {
+            val totalMs = loadingMs + idleMs
+            return if (totalMs == 0L) 0 else loadingMs * 1000 / totalMs
+        }
+
+    @Synchronized
+    fun shouldLoad(bufferedMediaMs: Long, playbackSpeed: Float, allocatedBytes: Int): Boolean {
+        val bufferedMs = playoutMs(bufferedMediaMs, playbackSpeed)
+        val policy = policy
+        this.bufferedMs = bufferedMs
+        this.allocatedBytes = allocatedBytes
+        if (allocatedBytes > peakBytes) peakBytes = allocatedBytes
+        val load = when {
+            allocatedBytes >= policy.maxBytes -> false
+            bufferedMs < policy.lowWatermarkMs -> true
+            bufferedMs >= policy.highWatermarkMs -> false
+            else -> loading
+        }
+        update(load)
+        return load
+    }
+
+    /**
+     * Whether enough is buffered to start, or go on after a stall. A full buffer always is.
+     */
+    fun shouldStartPlayback(
+        bufferedMediaMs: Long,
+        playbackSpeed: Float,
+        rebuffering: Boolean,
+        allocatedBytes: Int
+    ): Boolean {
+        val policy = policy
+        val minMs = if (rebuffering) policy.bufferForPlaybackAfterRebufferMs else policy.bufferForPlaybackMs
+        return minMs <= 0 ||
+                playoutMs(bufferedMediaMs, playbackSpeed) >= minMs ||
+                allocatedBytes >= policy.maxBytes
+    }
+
+    /**
+     * The player stopped or starts over; the time until the next call isn't counted.
+     */
+    @Synchronized
+    fun reset() {
+        endPhase(clock())
+        loading = false
+        lastUpdateMs = NO_TIME
+        phaseStartMs = NO_TIME
+        bufferedMs = 0
+        allocatedBytes = 0
+    }
+
+    /** How long each burst lasted, a copy. */
+    @Synchronized
+    fun burstMs(): Histogram = burstHistogram.copy()
+
+    /** How long loading stayed off between two bursts, a copy. */
+    @Synchronized
+    fun sleepMs(): Histogram = sleepHistogram.copy()
+
+    override fun toString(): String =
+        "BurstBuffer(policy=$policy, buffered=${bufferedMs}ms, allocated=${allocatedBytes}B, " +
+                "peak=${peakBytes}B, bursts=$bursts, radioOn=${radioOnPermille}‰)"
+
+    private fun update(load: Boolean) {
+        val nowMs = clock()
+        if (lastUpdateMs != NO_TIME) {
+            if (loading) loadingMs += nowMs - lastUpdateMs else idleMs += nowMs - lastUpdateMs
+        }
+        lastUpdateMs = nowMs
+        if (load != loading || phaseStartMs == NO_TIME) {
+            endPhase(nowMs)
+            if (load) bursts++
+            loading = load
+            phaseStartMs = nowMs
+        }
+    }
+
+    private fun endPhase(nowMs: Long) {
+        if (phaseStartMs == NO_TIME) return
+        (if (loading) burstHistogram else sleepHistogram).record(nowMs - phaseStartMs)
+    }
+
+    companion object {
+        private const val NO_TIME = Long.MIN_VALUE
+
+        // 250 ms to about 17 min.
+        private val DURATION_BOUNDS_MS = Histogram.exponentialBounds(250, 2, 13)
+
+        private fun Histogram.copy() = Histogram.of(bounds, counts, sum, max)
+
+        private fun playoutMs(mediaMs: Long, playbackSpeed: Float): Long =
+            if (playbackSpeed == 1f) mediaMs else (mediaMs / playbackSpeed).toLong()
+
+        /**
+         * On Wi-Fi: long bursts, so the radio stays off for the better part of a chapter.
+         */
+        val UNMETERED = Policy(
+            name = "unmetered",
+            lowWatermarkMs = 2 * 60_000,
+            highWatermarkMs = 15 * 60_000,
+            maxBytes = 24 * 1024 * 1024,
+            bufferForPlaybackMs = 1_000,
+            bufferForPlaybackAfterRebufferMs = 2_500
+        )
+
+        /**
+         * On mobile data: bursts still long enough to outlast the radio's tail, but less audio
+         * that is thrown away if the listener stops.
+         */
+        val METERED = Policy(
+            name = "metered",
+            lowWatermarkMs = 60_000,
+            highWatermarkMs = 5 * 60_000,
+            maxBytes = 8 * 1024 * 1024,
+            bufferForPlaybackMs = 1_000,
+            bufferForPlaybackAfterRebufferMs = 2_500
+        )
+
+        /**
+         * Without a network only cached chapters play, and reading those wakes no radio, so the
+         * buffer is kept small.
+         */
+        val OFFLINE = Policy(
+            name = "offline",
+            lowWatermarkMs = 15_000,
+            highWatermarkMs = 60_000,
+            maxBytes = 4 * 1024 * 1024,
+            bufferForPlaybackMs = 500,
+            bufferForPlaybackAfterRebufferMs = 1_000
+        )
+    }
+}
@@ -0,0 +1,220 @@
+package com.hyy.readeraudiosample
+
+import android.content.Context
+import android.util.Log
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.database.ExoDatabaseProvider
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory
+import com.google.android.exoplayer2.extractor.Extractor
+import com.google.android.exoplayer2.extractor.ExtractorsFactory
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory
+import com.google.android.exoplayer2.upstream.FileDataSourceFactory
+import com.google.android.exoplayer2.upstream.TransferListener
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink
+import com.google.android.exoplayer2.upstream.cache.CacheDataSinkFactory
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory
+import com.google.android.exoplayer2.upstream.cache.CacheException
+import com.google.android.exoplayer2.upstream.cache.ContentMetadata
+import com.google.android.exoplayer2.upstream.cache.ContentMetadataMutations
+import com.google.android.exoplayer2.upstream.cache.SimpleCache
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Persistent on-disk cache for chapter audio, shared by every [DataSource] the service creates.
+ * Chapters are evicted least-recently-used first once [maxBytes] is exceeded, so replays and
+ * seek-backs inside a recently heard chapter are served from disk instead of the network.
+ * Heads of upcoming chapters can be pinned through [evictor] so they survive eviction.
+ *
+ * Each chapter's [Mp3SeekIndex] is kept in the cache's content metadata, next to its audio, and
+ * goes away with it.
+ */
+class ChapterCache private constructor(
+    context: Context,
+    val maxBytes: Long = DEFAULT_MAX_CACHE_BYTES
+) {
+
+    val evictor = ChapterCacheEvictor(maxBytes)
+
+    val cache = SimpleCache(
+        File(context.cacheDir, CACHE_DIR_NAME),
+        evictor,
+        ExoDatabaseProvider(context)
+    )
+
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+    private val hitBytes = AtomicLong()
+    private val missBytes = AtomicLong()
+    private val seekIndexCount = AtomicLong()
+
+    /**
+     * Counts reads that had to go to the network. Every upstream open is a cache miss.
+     */
+    private val upstreamListener = object : TransferListener {
+        override fun onTransferInitializing(source: DataSource, dataSpec: DataSpec, isNetwork: Boolean) = Unit
+
+        override fun onTransferStart(source: DataSource, dataSpec: DataSpec, isNetwork: Boolean) {
+            if (isNetwork) missCount.incrementAndGet()
+        }
+
+        override fun onBytesTransferred(
+            source: DataSource,
+            dataSpec: DataSpec,
+            isNetwork: Boolean,
+            bytesTransferred: Int
+        ) {
+            if (isNetwork) missBytes.addAndGet(bytesTransferred.toLong())
+        }
+
+        override fun onTransferEnd(source: DataSource, dataSpec: DataSpec, isNetwork: Boolean) = Unit
+    }
+
+    /**
+     * Counts reads that were served from disk.
+     */
+    private val cacheListener = object : CacheDataSource.EventListener {
+        override fun onCachedBytesRead(cacheSizeBytes: Long, cachedBytesRead: Long) {
+            hitCount.incrementAndGet()
+            hitBytes.addAndGet(cachedBytesRead)
+        }
+
+        override fun onCacheIgnored(reason: Int) = Unit
+    }
+
+    /**
+     * Builds a [DataSource.Factory] that reads through this cache and falls back to a
+     * [DefaultDataSourceFactory] for the bytes that are not on disk yet. Reads of whole chapters
+     * also build their seek index.
+     */
+    fun createDataSourceFactory(context: Context, userAgent: String): DataSource.Factory =
+        buildDataSourceFactory(context, userAgent, upstreamListener, cacheListener)
+
+    /**
+     * Same as [createDataSourceFactory] but left out of the hit and miss counters, so background
+     * downloads don't skew what the player itself is served.
+     */
+    fun createPrefetchDataSourceFactory(context: Context, userAgent: String): DataSource.Factory =
+        buildDataSourceFactory(context, userAgent, null, null)
+
+    private fun buildDataSourceFactory(
+        context: Context,
+        userAgent: String,
+        transferListener: TransferListener?,
+        eventListener: CacheDataSource.EventListener?
+    ): DataSource.Factory =
+        SeekIndexingDataSource.Factory(
+            CacheDataSourceFactory(
+                cache,
+                DefaultDataSourceFactory(context, userAgent, transferListener),
+                FileDataSourceFactory(),
+                CacheDataSinkFactory(cache, CacheDataSink.DEFAULT_FRAGMENT_SIZE),
+                CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR,
+                eventListener
+            ),
+            this
+        )
+
+    /**
+     * Content length recorded for [key] by an earlier read, or [C.LENGTH_UNSET] if unknown.
+     */
+    fun contentLength(key: String): Long =
+        ContentMetadata.getContentLength(cache.getContentMetadata(key))
+
+    /**
+     * Whether the whole resource behind [key] is on disk. Unknown lengths count as not cached.
+     */
+    fun isFullyCached(key: String): Boolean {
+        val contentLength = contentLength(key)
+        return contentLength != C.LENGTH_UNSET.toLong() && cache.isCached(key, 0, contentLength)
+    }
+
+    fun hasSeekIndex(key: String): Boolean = cache.getContentMetadata(key).contains(SEEK_INDEX)
+
+    /**
+     * The seek index stored for [key], or null if there is none or it can't be read.
+     */
+    fun seekIndex(key: String): Mp3SeekIndex? =
+        cache.getContentMetadata(key).get(SEEK_INDEX, null as ByteArray?)
+            ?.let { Mp3SeekIndex.fromByteArray(it) }
+
+    fun putSeekIndex(key: String, index: Mp3SeekIndex) {
+        try {
+            cache.applyContentMetadataMutations(
+                key,
+                ContentMetadataMutations().set(SEEK_INDEX, index.toByteArray())
+            )
+            seekIndexCount.incrementAndGet()
+        } catch (e: CacheException) {
+            Log.w(TAG, "putSeekIndex: failed to store the seek index of $key", e)
+        }
+    }
+
+    /**
+     * The exact duration stored for [key] by a probe, or [C.TIME_UNSET]. Like the seek index it
+     * goes when the last of the chapter is evicted.
+     */
+    fun durationMs(key: String): Long = cache.getContentMetadata(key).get(DURATION_MS, C.TIME_UNSET)
+
+    fun putDurationMs(key: String, durationMs: Long) {
+        try {
+            cache.applyContentMetadataMutations(key, ContentMetadataMutations().set(DURATION_MS, durationMs))
+        } catch (e: CacheException) {
+            Log.w(TAG, "putDurationMs: failed to store the duration of $key", e)
+        }
+    }
+
+    /**
+     * Extractors for the chapter behind [key]: seeking through its index when there is one, the
+     * default ones otherwise. The index is looked up when the player creates the extractors, on
+     * its loading thread, so an index built while the chapter plays is used from the next source
+     * on.
+     */
+    fun extractorsFactory(key: String): ExtractorsFactory = ExtractorsFactory {
+        val defaults = DefaultExtractorsFactory().createExtractors()
+        val index = seekIndex(key)
+        if (index == null) defaults else arrayOf<Extractor>(Mp3SeekIndexExtractor(index)) + defaults
+    }
+
+    val hits: Long get() = hitCount.get()
+    val misses: Long get() = missCount.get()
+    val bytesFromCache: Long get() = hitBytes.get()
+    val bytesFromNetwork: Long get() = missBytes.get()
+
+    /**
+     * Share of the bytes handed to the player that came from disk, between 0 and 1.
+     */
+    val hitRate: Float
+        get() {
+            val total = bytesFromCache + bytesFromNetwork
+            return if (total == 0L) 0f else bytesFromCache.toFloat() / total
+        }
+
+    override fun toString(): String =
+        "ChapterCache(used=${cache.cacheSpace}/$maxBytes, hits=$hits, misses=$misses, " +
+                "bytesFromCache=$bytesFromCache, bytesFromNetwork=$bytesFromNetwork, " +
+                "seekIndexesBuilt=${seekIndexCount.get()})"
+
+    companion object {
+        const val TAG = "ChapterCache"
+        const val CACHE_DIR_NAME = "chapter_audio"
+        //content metadata 中保存 seek 索引的名字
+        const val SEEK_INDEX = "reader_audio.seek_index"
+        const val DURATION_MS = "reader_audio.duration_ms"
+        const val DEFAULT_MAX_CACHE_BYTES = 256L * 1024 * 1024
+
+        // Only one SimpleCache may own the cache folder, and background downloads can outlive
+        // a single service instance, so the cache lives as long as the process.
+        @Volatile
+        private var instance: ChapterCache? = null
+
+        fun getInstance(context: Context) =
+            instance ?: synchronized(this) {
+                instance ?: ChapterCache(context.applicationContext)
+                    .also { instance = it }
+            }
+    }
+}
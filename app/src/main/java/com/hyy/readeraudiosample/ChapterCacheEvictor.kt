@@ -0,0 +1,94 @@
+package com.hyy.readeraudiosample
+
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.cache.Cache
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor
+import com.google.android.exoplayer2.upstream.cache.CacheSpan
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor
+import java.util.TreeSet
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Least-recently-used eviction, like [LeastRecentlyUsedCacheEvictor], except that spans lying in
+ * the pinned head of a chapter are never picked. Pinned heads are what lets an upcoming chapter
+ * start from disk even after a long listening session has churned through the rest of the cache.
+ *
+ * The cache may go over [maxBytes] by at most the size of the pinned heads.
+ */
+class ChapterCacheEvictor(private val maxBytes: Long) : CacheEvictor, Comparator<CacheSpan> {
+
+    private val leastRecentlyUsed = TreeSet<CacheSpan>(this)
+    private var currentSize = 0L
+
+    //cache key -> 从文件开头算起被固定的字节数
+    private val pinnedHeads = ConcurrentHashMap<String, Long>()
+
+    val pinnedCount: Int get() = pinnedHeads.size
+
+    /**
+     * Keeps the first [bytes] of [key] out of eviction until [retainPins] drops it.
+     */
+    fun pin(key: String, bytes: Long) {
+        pinnedHeads[key] = bytes
+    }
+
+    /**
+     * Unpins every chapter that is not in [keys]; their heads become ordinary LRU entries.
+     */
+    fun retainPins(keys: Collection<String>) {
+        pinnedHeads.keys.retainAll(keys)
+    }
+
+    private fun isPinned(span: CacheSpan): Boolean {
+        val pinnedBytes = pinnedHeads[span.key] ?: return false
+        return span.position < pinnedBytes
+    }
+
+    override fun requiresCacheSpanTouches(): Boolean = true
+
+    override fun onCacheInitialized() = Unit
+
+    override fun onStartFile(cache: Cache, key: String, position: Long, length: Long) {
+        if (length != C.LENGTH_UNSET.toLong()) {
+            evictCache(cache, length)
+        }
+    }
+
+    override fun onSpanAdded(cache: Cache, span: CacheSpan) {
+        leastRecentlyUsed.add(span)
+        currentSize += span.length
+        evictCache(cache, 0)
+    }
+
+    override fun onSpanRemoved(cache: Cache, span: CacheSpan) {
+        leastRecentlyUsed.remove(span)
+        currentSize -= span.length
+    }
+
+    override fun onSpanTouched(cache: Cache, oldSpan: CacheSpan, newSpan: CacheSpan) {
+        onSpanRemoved(cache, oldSpan)
+        onSpanAdded(cache, newSpan)
+    }
+
+    override fun compare(lhs: CacheSpan, rhs: CacheSpan): Int {
+        if (lhs.lastTouchTimestamp == rhs.lastTouchTimestamp) {
+            return lhs.compareTo(rhs)
+        }
+        return if (lhs.lastTouchTimestamp < rhs.lastTouchTimestamp) -1 else 1
+    }
+
+    private fun evictCache(cache: Cache, requiredSpace: Long) {
+        if (currentSize + requiredSpace <= maxBytes) return
+        // Pick the victims first: removing a span calls back into onSpanRemoved, which would
+        // modify the set while it is being iterated.
+        val victims = ArrayList<CacheSpan>()
+        var sizeAfterEviction = currentSize
+        for (span in leastRecentlyUsed) {
+            if (sizeAfterEviction + requiredSpace <= maxBytes) break
+            if (isPinned(span)) continue
+            victims.add(span)
+            sizeAfterEviction -= span.length
+        }
+        victims.forEach { cache.removeSpan(it) }
+    }
+}
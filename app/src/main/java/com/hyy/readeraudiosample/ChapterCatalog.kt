@@ -0,0 +1,228 @@
+package com.hyy.readeraudiosample
+
+import com.hyy.readeraudiosample.model.ChapterAudioItem
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * A book's chapter list as a compact binary file, read through a read-only memory map.
+ *
+ * The app writes the file once with [write] and hands only its path to the service, which
+ * [open]s it in O(1): nothing is parsed up front. Each chapter is a fixed-size record, so any
+ * chapter is one offset computation away, and its strings live in a deduplicated UTF-8 pool. An
+ * open-addressing table in the file, always with an empty slot, resolves chapter ids without
+ * building an index in memory.
+ *
+ * Layout, big-endian:
+ * ```
+ * header   magic, version, count, slotCount, recordsOffset, slotsOffset, poolOffset, poolSize
+ * records  count × (5 × (poolOffset, length) for chapterName, bookName, source, id, img; duration)
+ * slots    slotCount × (record index + 1, 0 for empty), probed linearly from id.hashCode()
+ * pool     UTF-8 bytes
+ * ```
+ */
+class ChapterCatalog private constructor(
+    val file: File,
+    private val buffer: ByteBuffer
+) {
+
+    val size: Int = buffer.getInt(OFFSET_COUNT)
+    private val slotCount = buffer.getInt(OFFSET_SLOT_COUNT)
+    private val recordsOffset = buffer.getInt(OFFSET_RECORDS)
+    private val slotsOffset = buffer.getInt(OFFSET_SLOTS)
+    private val poolOffset = buffer.getInt(OFFSET_POOL)
+
+    operator fun get(index: Int): ChapterAudioItem =
+        ChapterAudioItem(
+            chapterName = string(index, FIELD_CHAPTER_NAME),
+            bookName = string(index, FIELD_BOOK_NAME),
+            source = string(index, FIELD_SOURCE),
+            id = string(index, FIELD_ID),
+            duration = durationAt(index),
+            img = string(index, FIELD_IMG)
+        )
+
+    /**
+     * Materializes chapters [fromIndex, toIndex); only these records are decoded.
+     */
+    fun subList(fromIndex: Int, toIndex: Int): List<ChapterAudioItem> =
+        (fromIndex until toIndex).map { get(it) }
+
+    fun durationAt(index: Int): Long = buffer.getLong(recordOffset(index) + FIELD_DURATION)
+
+    fun idAt(index: Int): String = string(index, FIELD_ID)
+
+    fun sourceAt(index: Int): String = string(index, FIELD_SOURCE)
+
+    /**
+     * Position of the chapter with [id], or -1 if there is none.
+     */
+    fun indexOf(id: String?): Int {
+        if (id == null || slotCount == 0) return -1
+        val idBytes = id.toByteArray(Charsets.UTF_8)
+        val mask = slotCount - 1
+        var slot = id.hashCode() and mask
+        // open() checked there is an empty slot, but a damaged table mustn't make this spin.
+        repeat(slotCount) {
+            val entry = buffer.getInt(slotsOffset + slot * SLOT_SIZE)
+            if (entry == 0) return -1
+            if (poolEquals(entry - 1, FIELD_ID, idBytes)) return entry - 1
+            slot = (slot + 1) and mask
+        }
+        return -1
+    }
+
+    private fun recordOffset(index: Int): Int {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        return recordsOffset + index * RECORD_SIZE
+    }
+
+    private fun string(index: Int, field: Int): String {
+        val record = recordOffset(index)
+        val bytes = ByteArray(buffer.getInt(record + field + 4))
+        val view = buffer.duplicate()
+        view.position(poolOffset + buffer.getInt(record + field))
+        view.get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun poolEquals(index: Int, field: Int, bytes: ByteArray): Boolean {
+        val record = recordOffset(index)
+        if (buffer.getInt(record + field + 4) != bytes.size) return false
+        val start = poolOffset + buffer.getInt(record + field)
+        for (i in bytes.indices) {
+            if (buffer.get(start + i) != bytes[i]) return false
+        }
+        return true
+    }
+
+    override fun toString(): String = "ChapterCatalog(file=$file, size=$size)"
+
+    companion object {
+        //目录文件放在 filesDir 下的这个文件夹里，服务只打开这里的文件
+        const val CATALOG_DIR_NAME = "chapter_catalogs"
+
+        private const val MAGIC = 0x43484354 // "CHCT"
+        private const val VERSION = 1
+
+        private const val OFFSET_COUNT = 8
+        private const val OFFSET_SLOT_COUNT = 12
+        private const val OFFSET_RECORDS = 16
+        private const val OFFSET_SLOTS = 20
+        private const val OFFSET_POOL = 24
+        private const val OFFSET_POOL_SIZE = 28
+        private const val HEADER_SIZE = 32
+
+        private const val FIELD_CHAPTER_NAME = 0
+        private const val FIELD_BOOK_NAME = 8
+        private const val FIELD_SOURCE = 16
+        private const val FIELD_ID = 24
+        private const val FIELD_IMG = 32
+        private const val FIELD_DURATION = 40
+        private const val RECORD_SIZE = 48
+
+        private const val SLOT_SIZE = 4
+
+        /**
+         * Maps [file] read-only. Only the header is checked, so this is O(1) in the number of
+         * chapters; the mapping stays valid after the file is closed.
+         */
+        @Throws(IOException::class)
+        fun open(file: File): ChapterCatalog {
+            val buffer = RandomAccessFile(file, "r").use {
+                it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+            }
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw IOException("Not a chapter catalog: $file")
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw IOException("Unsupported catalog version ${buffer.getInt(4)}: $file")
+            }
+            val count = buffer.getInt(OFFSET_COUNT)
+            val slotCount = buffer.getInt(OFFSET_SLOT_COUNT)
+            val poolEnd = buffer.getInt(OFFSET_POOL).toLong() + buffer.getInt(OFFSET_POOL_SIZE)
+            // More slots than chapters, so every lookup ends at an empty slot.
+            if (count < 0 || slotCount <= count || slotCount and (slotCount - 1) != 0 ||
+                buffer.getInt(OFFSET_RECORDS).toLong() + count.toLong() * RECORD_SIZE > buffer.capacity() ||
+                buffer.getInt(OFFSET_SLOTS).toLong() + slotCount.toLong() * SLOT_SIZE > buffer.capacity() ||
+                poolEnd > buffer.capacity()
+            ) {
+                throw IOException("Malformed chapter catalog: $file")
+            }
+            return ChapterCatalog(file, buffer)
+        }
+
+        /**
+         * Writes [chapters] to [file], replacing it atomically. Chapters whose id already came
+         * earlier in the list are dropped, as the playlist would.
+         */
+        @Throws(IOException::class)
+        fun write(file: File, chapters: List<ChapterAudioItem>) {
+            val seenIds = HashSet<String>()
+            val unique = chapters.filter { seenIds.add(it.id) }
+
+            //相同的字符串（书名、封面等）在池中只存一份
+            val pool = ByteArrayOutputStream()
+            val poolIndex = HashMap<String, Int>()
+            fun pooled(value: String): Long {
+                val bytes = value.toByteArray(Charsets.UTF_8)
+                val offset = poolIndex.getOrPut(value) {
+                    pool.size().also { pool.write(bytes) }
+                }
+                return (offset.toLong() shl 32) or bytes.size.toLong()
+            }
+
+            var slotCount = 1
+            while (slotCount < unique.size * 2) slotCount = slotCount shl 1
+            val recordsOffset = HEADER_SIZE
+            val slotsOffset = recordsOffset + unique.size * RECORD_SIZE
+            val poolOffset = slotsOffset + slotCount * SLOT_SIZE
+
+            val records = ByteBuffer.allocate(unique.size * RECORD_SIZE)
+            val slots = ByteBuffer.allocate(slotCount * SLOT_SIZE)
+            unique.forEachIndexed { index, chapter ->
+                listOf(chapter.chapterName, chapter.bookName, chapter.source, chapter.id, chapter.img)
+                    .forEach {
+                        val ref = pooled(it)
+                        records.putInt((ref ushr 32).toInt())
+                        records.putInt(ref.toInt())
+                    }
+                records.putLong(chapter.duration)
+
+                var slot = chapter.id.hashCode() and (slotCount - 1)
+                while (slots.getInt(slot * SLOT_SIZE) != 0) slot = (slot + 1) and (slotCount - 1)
+                slots.putInt(slot * SLOT_SIZE, index + 1)
+            }
+
+            val header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(unique.size)
+                .putInt(slotCount)
+                .putInt(recordsOffset)
+                .putInt(slotsOffset)
+                .putInt(poolOffset)
+                .putInt(pool.size())
+            header.flip()
+            records.flip()
+
+            val tmp = File(file.parentFile, "${file.name}.tmp")
+            RandomAccessFile(tmp, "rw").use {
+                it.setLength(0)
+                val channel = it.channel
+                for (part in arrayOf(header, records, slots, ByteBuffer.wrap(pool.toByteArray()))) {
+                    while (part.hasRemaining()) channel.write(part)
+                }
+                channel.force(false)
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                throw IOException("Failed to replace $file")
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.hyy.readeraudiosample
+
+/**
+ * An ordered list of chapters with a hash index from chapter id to position.
+ *
+ * Lookups by id are O(1). Appends are O(k) for k new chapters; inserts, removals and moves only
+ * re-index the chapters whose position actually changed. Ids are unique: adding a chapter whose
+ * id is already present is ignored.
+ *
+ * Has no Android dependencies, so it can be exercised on a plain JVM.
+ */
+class ChapterIndex<T>(private val idOf: (T) -> String) {
+
+    private val items = ArrayList<T>()
+    private val positions = HashMap<String, Int>()
+
+    val size: Int get() = items.size
+
+    operator fun get(index: Int): T = items[index]
+
+    operator fun contains(id: String): Boolean = positions.containsKey(id)
+
+    /**
+     * Position of the chapter with [id], or -1 if there is none.
+     */
+    fun indexOf(id: String?): Int = positions[id] ?: -1
+
+    fun subList(fromIndex: Int, toIndex: Int): List<T> = items.subList(fromIndex, toIndex)
+
+    fun add(item: T): Boolean = addAll(items.size, listOf(item)) == 1
+
+    /**
+     * Inserts [newItems] at [index], skipping ids that are already indexed.
+     *
+     * @return how many chapters were actually inserted.
+     */
+    fun addAll(index: Int, newItems: Collection<T>): Int {
+        if (index < 0 || index > items.size) throw IndexOutOfBoundsException("index: $index")
+        val accepted = ArrayList<T>(newItems.size)
+        val acceptedIds = HashSet<String>()
+        newItems.forEach {
+            val id = idOf(it)
+            if (!positions.containsKey(id) && acceptedIds.add(id)) accepted.add(it)
+        }
+        if (accepted.isEmpty()) return 0
+        items.addAll(index, accepted)
+        reindex(index, items.size)
+        return accepted.size
+    }
+
+    fun addAll(newItems: Collection<T>): Int = addAll(items.size, newItems)
+
+    /**
+     * Removes the chapters in [fromIndex, toIndex).
+     */
+    fun removeRange(fromIndex: Int, toIndex: Int) {
+        if (fromIndex < 0 || toIndex > items.size || fromIndex > toIndex) {
+            throw IndexOutOfBoundsException("range: [$fromIndex, $toIndex)")
+        }
+        if (fromIndex == toIndex) return
+        val removed = items.subList(fromIndex, toIndex)
+        removed.forEach { positions.remove(idOf(it)) }
+        removed.clear()
+        reindex(fromIndex, items.size)
+    }
+
+    fun removeAt(index: Int) = removeRange(index, index + 1)
+
+    /**
+     * Moves the chapter at [fromIndex] so that it ends up at [toIndex].
+     */
+    fun move(fromIndex: Int, toIndex: Int) {
+        if (fromIndex == toIndex) return
+        items.add(toIndex, items.removeAt(fromIndex))
+        reindex(minOf(fromIndex, toIndex), maxOf(fromIndex, toIndex) + 1)
+    }
+
+    fun clear() {
+        items.clear()
+        positions.clear()
+    }
+
+    private fun reindex(fromIndex: Int, toIndex: Int) {
+        for (i in fromIndex until toIndex) {
+            positions[idOf(items[i])] = i
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.hyy.readeraudiosample
+
+import android.os.Bundle
+import android.os.Parcel
+import android.util.Log
+import com.hyy.readeraudiosample.model.ChapterAudioItem
+
+/**
+ * Sends a chapter list of any length to [ReaderAudioService] through [ACTION_ADD_MEDIA_ITEM]
+ * without running into the binder transaction limit.
+ *
+ * The list is cut into pages whose parcelled size stays under [maxPageBytes], and only one page
+ * is in flight at a time: the next one goes out when the service has answered the previous one.
+ * That bounds every transaction and keeps either side from parcelling the whole book at once.
+ */
+class ChapterListTransfer(
+    private val chapters: List<ChapterAudioItem>,
+    //插入到书中的位置，小于 0 表示追加到末尾
+    private val startIndex: Int,
+    private val send: (Bundle, (Bundle?) -> Unit) -> Unit,
+    private val onComplete: (added: Int, success: Boolean) -> Unit,
+    private val maxPageBytes: Int = DEFAULT_MAX_PAGE_BYTES
+) {
+
+    //下一页第一个章节在 chapters 中的位置
+    private var cursor = 0
+    private var added = 0
+    private var cancelled = false
+
+    var pagesSent = 0
+        private set
+
+    fun start() {
+        sendNextPage()
+    }
+
+    /**
+     * Stops after the page currently in flight; [onComplete] is not called.
+     */
+    fun cancel() {
+        cancelled = true
+    }
+
+    private fun sendNextPage() {
+        if (cancelled) return
+        if (cursor >= chapters.size) {
+            onComplete(added, true)
+            return
+        }
+        val end = pageEnd(cursor)
+        val bundle = Bundle().apply {
+            putParcelableArrayList(ACTION_ADD_MEDIA_ITEM, ArrayList(chapters.subList(cursor, end)))
+            if (startIndex >= 0) putInt(EXTRA_QUEUE_INDEX, startIndex + added)
+        }
+        pagesSent++
+        send(bundle) { result ->
+            if (result == null) {
+                Log.w(TAG, "sendNextPage: page $pagesSent rejected, $added chapters added")
+                if (!cancelled) onComplete(added, false)
+                return@send
+            }
+            // Chapters the book already had are skipped, so count what the service reports.
+            added += result.getInt(EXTRA_QUEUE_CHANGED_COUNT)
+            cursor = end
+            sendNextPage()
+        }
+    }
+
+    /**
+     * End of the page starting at [from]: as many chapters as fit in [maxPageBytes], but always
+     * at least one.
+     */
+    private fun pageEnd(from: Int): Int {
+        val parcel = Parcel.obtain()
+        try {
+            var end = from
+            while (end < chapters.size) {
+                parcel.writeParcelable(chapters[end], 0)
+                if (parcel.dataSize() > maxPageBytes && end > from) break
+                end++
+            }
+            return end
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    companion object {
+        const val TAG = "ChapterListTransfer"
+        // The binder buffer is 1 MB for all transactions in flight in the process; stay far below.
+        const val DEFAULT_MAX_PAGE_BYTES = 64 * 1024
+    }
+}
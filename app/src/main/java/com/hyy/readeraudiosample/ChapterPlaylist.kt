@@ -0,0 +1,363 @@
+package com.hyy.readeraudiosample
+
+import android.os.Handler
+import android.support.v4.media.MediaMetadataCompat
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory
+import com.google.android.exoplayer2.extractor.ExtractorsFactory
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource
+import com.google.android.exoplayer2.source.MediaSource
+import com.google.android.exoplayer2.upstream.DataSource
+import com.hyy.readeraudiosample.model.ChapterAudioItem
+import java.util.concurrent.TimeUnit
+
+/**
+ * The service's playlist for one book.
+ *
+ * Every chapter is kept as a lightweight [ChapterAudioItem], but only a window of chapters around
+ * the current one is materialized as [MediaMetadataCompat] plus media source in [mediaSource].
+ * The window follows the listener via [slideTo], so memory stays constant no matter how many
+ * chapters a book has.
+ *
+ * Chapter indices address the whole book; window indices address [mediaSource] and therefore the
+ * player's timeline. Each materialized source carries its [MediaMetadataCompat] as tag, so the
+ * timeline itself tells which chapter a window is, even while a window change is still in flight.
+ *
+ * Chapters are looked up by id in constant time through a [ChapterIndex], which stays consistent
+ * across [insertAll], [removeRange] and [move]. After each of those the materialized window is
+ * reconciled with the book, so it never holds a chapter that is gone or out of order. Wrap
+ * several edits in [edit] to reconcile once and land them as a single timeline update.
+ *
+ * A book can also be [open]ed from a [ChapterCatalog], in which case chapters are read from the
+ * mapped file and only copied into the index once the book is edited.
+ *
+ * Positions across the whole book go through [bookTimeline], built from the chapter durations on
+ * first use after the book changed, with the durations the player measured taking precedence.
+ */
+class ChapterPlaylist(
+    private val dataSourceFactory: DataSource.Factory,
+    private val toMetadata: (List<ChapterAudioItem>) -> List<MediaMetadataCompat>,
+    //每个章节用哪些 extractor，例如带 seek 索引的
+    private val extractorsFactory: (MediaMetadataCompat) -> ExtractorsFactory =
+        { DefaultExtractorsFactory() },
+    //当前章节之前保留几个章节
+    private val windowBefore: Int = DEFAULT_WINDOW_BEFORE,
+    //当前章节之后保留几个章节
+    private val windowAfter: Int = DEFAULT_WINDOW_AFTER
+) {
+
+    val mediaSource = ConcatenatingMediaSource()
+
+    private val chapters = ChapterIndex<ChapterAudioItem> { it.id }
+
+    //整本书来自目录文件时直接从映射读取，第一次编辑时才拷贝进 chapters
+    private var catalog: ChapterCatalog? = null
+
+    //与 mediaSource 中的子 source 一一对应的章节 id
+    private val windowIds = ArrayList<String>()
+
+    //reconcile 算出的 mediaSource 操作，在 flushOps 中一次性提交
+    private val pendingOps = ArrayList<(Handler?, Runnable?) -> Unit>()
+
+    //当前章节的 id，章节位置会随增删移动变化，所以记 id 而不是下标
+    private var currentId: String? = null
+
+    //edit{} 嵌套层数，大于 0 时推迟窗口同步
+    private var batchDepth = 0
+
+    //播放器实际测得的章节时长，按 id 记录，书被编辑、时间轴重建后依然有效
+    private val measuredDurationsMs = HashMap<String, Long>()
+
+    //书变化后置空，下次用到时重建
+    private var timeline: BookTimeline? = null
+
+    //窗口第一个章节在整本书中的位置
+    var windowStart = 0
+        private set
+
+    val currentChapterIndex: Int get() = indexOf(currentId)
+
+    val size: Int get() = catalog?.size ?: chapters.size
+
+    val windowSize: Int get() = windowIds.size
+
+    /**
+     * The whole book on one time axis. Rebuilding it after an edit is O(n), everything else is
+     * O(log n).
+     */
+    val bookTimeline: BookTimeline
+        get() = timeline ?: buildTimeline().also { timeline = it }
+
+    operator fun get(chapterIndex: Int): ChapterAudioItem =
+        catalog?.get(chapterIndex) ?: chapters[chapterIndex]
+
+    /**
+     * Chapter index of the chapter with [id], or [C.INDEX_UNSET] if the book doesn't have it.
+     */
+    fun indexOf(id: String?): Int = catalog?.indexOf(id) ?: chapters.indexOf(id)
+
+    fun isLastChapter(chapterIndex: Int) = chapterIndex == size - 1
+
+    fun idAt(chapterIndex: Int): String =
+        catalog?.idAt(chapterIndex) ?: chapters[chapterIndex].id
+
+    fun sourceAt(chapterIndex: Int): String =
+        catalog?.sourceAt(chapterIndex) ?: chapters[chapterIndex].source
+
+    /**
+     * A media source of [chapterIndex] alone, outside the window, for a player of its own.
+     */
+    fun mediaSourceAt(chapterIndex: Int): MediaSource = materialize(chapterIndex, chapterIndex + 1)[0]
+
+    /**
+     * Records the real duration of [chapterIndex], which the backend's whole seconds only
+     * approximate.
+     */
+    fun correctDuration(chapterIndex: Int, durationMs: Long) {
+        measuredDurationsMs[idAt(chapterIndex)] = durationMs
+        timeline?.setDurationMs(chapterIndex, durationMs)
+    }
+
+    /**
+     * The next [count] chapters after the current one, materialized or not.
+     */
+    fun upcoming(count: Int): List<ChapterAudioItem> {
+        val current = currentChapterIndex
+        if (current == C.INDEX_UNSET) return emptyList()
+        val from = current + 1
+        val to = minOf(from + count, size)
+        return if (from >= to) emptyList() else range(from, to).toList()
+    }
+
+    fun add(item: ChapterAudioItem) = addAll(listOf(item))
+
+    fun addAll(items: List<ChapterAudioItem>) = insertAll(size, items)
+
+    /**
+     * Replaces the book with [catalog]. Nothing is copied: chapters are read from the mapped file
+     * until the first edit, so even a huge book opens in constant time. Nothing is current
+     * afterwards; pick a chapter with [resetWindow].
+     */
+    fun open(catalog: ChapterCatalog) {
+        clear()
+        this.catalog = catalog
+    }
+
+    /**
+     * Inserts chapters into the book at [chapterIndex]. Those that fall inside the current window
+     * are materialized right away; the rest wait until the listener gets close to them. Chapters
+     * already in the book are skipped.
+     *
+     * @return how many chapters were inserted.
+     */
+    fun insertAll(chapterIndex: Int, items: List<ChapterAudioItem>): Int {
+        detachCatalog()
+        val inserted = chapters.addAll(chapterIndex, items)
+        if (inserted > 0) timeline = null
+        if (inserted > 0 && batchDepth == 0) syncWindow()
+        return inserted
+    }
+
+    /**
+     * Removes the chapters in [fromIndex, toIndex) from the book. If the current chapter is among
+     * them, the chapter that follows the range (or else precedes it) becomes current.
+     */
+    fun removeRange(fromIndex: Int, toIndex: Int) {
+        detachCatalog()
+        val current = currentChapterIndex
+        if (current in fromIndex until toIndex) {
+            currentId = when {
+                toIndex < chapters.size -> chapters[toIndex].id
+                fromIndex > 0 -> chapters[fromIndex - 1].id
+                else -> null
+            }
+        }
+        chapters.removeRange(fromIndex, toIndex)
+        timeline = null
+        if (batchDepth == 0) syncWindow()
+    }
+
+    fun move(fromIndex: Int, toIndex: Int) {
+        detachCatalog()
+        chapters.move(fromIndex, toIndex)
+        timeline = null
+        if (batchDepth == 0) syncWindow()
+    }
+
+    /**
+     * Runs [block], which may call [insertAll], [removeRange] and [move] any number of times, and
+     * reconciles the materialized window once at the end. However many chapters were touched, the
+     * player then sees one timeline update, so the session queue and the notification refresh
+     * once.
+     *
+     * [onCompletion] runs on [handler] once the player has picked up the change.
+     */
+    fun <R> edit(handler: Handler? = null, onCompletion: Runnable? = null, block: ChapterPlaylist.() -> R): R {
+        batchDepth++
+        val result = try {
+            block()
+        } finally {
+            batchDepth--
+        }
+        if (batchDepth == 0) {
+            syncWindow(handler, onCompletion)
+        } else if (handler != null && onCompletion != null) {
+            // The outer edit reconciles; nested completions just follow it.
+            handler.post(onCompletion)
+        }
+        return result
+    }
+
+    /**
+     * Throws the materialized window away and builds a new one around [chapterIndex].
+     *
+     * @return the window index of [chapterIndex], to seek the player to.
+     */
+    fun resetWindow(chapterIndex: Int): Int {
+        if (windowIds.isNotEmpty()) {
+            pendingOps.add { h, r -> mediaSource.clear(h, r) }
+            windowIds.clear()
+        }
+        currentId = idAt(chapterIndex)
+        syncWindow()
+        return chapterIndex - windowStart
+    }
+
+    /**
+     * Moves the window so it spans [windowBefore] chapters before and [windowAfter] chapters after
+     * [chapterIndex]. Chapters entering the window are inserted, chapters leaving it are removed;
+     * the playing one is never touched, so playback continues seamlessly.
+     */
+    fun slideTo(chapterIndex: Int) {
+        currentId = idAt(chapterIndex)
+        syncWindow()
+    }
+
+    fun clear() {
+        pendingOps.clear()
+        catalog = null
+        chapters.clear()
+        mediaSource.clear()
+        windowIds.clear()
+        windowStart = 0
+        currentId = null
+        measuredDurationsMs.clear()
+        timeline = null
+    }
+
+    private fun syncWindow(handler: Handler? = null, onCompletion: Runnable? = null) {
+        val current = currentChapterIndex
+        if (current == C.INDEX_UNSET) {
+            // Nothing is playing: nothing needs to be materialized.
+            if (windowIds.isNotEmpty()) {
+                pendingOps.add { h, r -> mediaSource.clear(h, r) }
+                windowIds.clear()
+            }
+            windowStart = 0
+        } else {
+            val desiredStart = maxOf(0, current - windowBefore)
+            val desiredEnd = minOf(size, current + windowAfter + 1)
+            reconcile(desiredStart, desiredEnd)
+            windowStart = desiredStart
+        }
+        flushOps(handler, onCompletion)
+    }
+
+    /**
+     * Issues the recorded media source operations back to back, which the media source folds
+     * into one timeline update, and hangs [onCompletion] on the last of them.
+     */
+    private fun flushOps(handler: Handler?, onCompletion: Runnable?) {
+        if (pendingOps.isEmpty()) {
+            if (handler != null && onCompletion != null) handler.post(onCompletion)
+            return
+        }
+        val lastIndex = pendingOps.size - 1
+        pendingOps.forEachIndexed { index, op ->
+            if (index == lastIndex) op(handler, onCompletion) else op(null, null)
+        }
+        pendingOps.clear()
+    }
+
+    /**
+     * Brings [mediaSource] to exactly the chapters [desiredStart, desiredEnd) with as few media
+     * source operations as possible: remove what left, move what got reordered, insert what is
+     * new. The window is a handful of chapters, so the quadratic scans here are cheap.
+     */
+    private fun reconcile(desiredStart: Int, desiredEnd: Int) {
+        val desired = (desiredStart until desiredEnd).map { idAt(it) }
+        val desiredIds = desired.toHashSet()
+
+        // Walk backwards so the indices of runs still to visit stay valid.
+        var i = windowIds.size - 1
+        while (i >= 0) {
+            if (windowIds[i] in desiredIds) {
+                i--
+                continue
+            }
+            var from = i
+            while (from > 0 && windowIds[from - 1] !in desiredIds) from--
+            val to = i + 1
+            pendingOps.add { h, r -> mediaSource.removeMediaSourceRange(from, to, h, r) }
+            windowIds.subList(from, to).clear()
+            i = from - 1
+        }
+
+        var position = 0
+        while (position < desired.size) {
+            val id = desired[position]
+            if (position < windowIds.size && windowIds[position] == id) {
+                position++
+                continue
+            }
+            val existing = windowIds.indexOf(id)
+            if (existing != -1) {
+                val to = position
+                pendingOps.add { h, r -> mediaSource.moveMediaSource(existing, to, h, r) }
+                windowIds.add(position, windowIds.removeAt(existing))
+                position++
+                continue
+            }
+            var end = position + 1
+            while (end < desired.size && desired[end] !in windowIds) end++
+            val at = position
+            val sources = materialize(desiredStart + position, desiredStart + end)
+            pendingOps.add { h, r -> mediaSource.addMediaSources(at, sources, h, r) }
+            windowIds.addAll(position, desired.subList(position, end))
+            position = end
+        }
+    }
+
+    private fun materialize(from: Int, to: Int) =
+        toMetadata(range(from, to)).map { it.toMediaSource(dataSourceFactory, extractorsFactory(it)) }
+
+    private fun buildTimeline(): BookTimeline {
+        // The backend gives chapter durations in seconds.
+        val durations = LongArray(size) {
+            TimeUnit.SECONDS.toMillis(catalog?.durationAt(it) ?: chapters[it].duration)
+        }
+        val timeline = BookTimeline(durations)
+        for ((id, durationMs) in measuredDurationsMs) {
+            val chapterIndex = indexOf(id)
+            if (chapterIndex != C.INDEX_UNSET) timeline.setDurationMs(chapterIndex, durationMs)
+        }
+        return timeline
+    }
+
+    private fun range(from: Int, to: Int): List<ChapterAudioItem> =
+        catalog?.subList(from, to) ?: chapters.subList(from, to)
+
+    /**
+     * Copies a catalog-backed book into [chapters] so it can be edited.
+     */
+    private fun detachCatalog() {
+        val catalog = catalog ?: return
+        chapters.addAll(catalog.subList(0, catalog.size))
+        this.catalog = null
+    }
+
+    companion object {
+        const val DEFAULT_WINDOW_BEFORE = 2
+        const val DEFAULT_WINDOW_AFTER = 3
+    }
+}
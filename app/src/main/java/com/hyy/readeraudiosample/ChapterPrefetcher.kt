@@ -0,0 +1,195 @@
+package com.hyy.readeraudiosample
+
+import android.net.Uri
+import android.util.Log
+import androidx.core.net.toUri
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.util.Util
+import com.hyy.readeraudiosample.model.ChapterAudioItem
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Downloads upcoming chapters into the [ChapterCache] in the background, so the player finds
+ * them on disk when it crosses the chapter boundary.
+ *
+ * The service decides *when* to prefetch (see [horizonMs]); this class only decides *what* is
+ * still missing and downloads it, one chapter after the other, in queue order.
+ *
+ * In [Mode.HEAD] only the first [headMs] of each chapter is fetched and pinned in the cache, which
+ * is enough for a chapter to start instantly while the rest streams, at a fraction of the data.
+ */
+class ChapterPrefetcher(
+    private val chapterCache: ChapterCache,
+    private val dataSourceFactory: DataSource.Factory,
+    serviceScope: ServiceScope,
+    //提前下载后面几个章节
+    var aheadCount: Int = DEFAULT_AHEAD_COUNT,
+    //剩余播放时间（已按倍速换算）低于这个值时开始预下载
+    var horizonMs: Long = DEFAULT_HORIZON_MS,
+    //HEAD 模式下预取后面几个章节的开头
+    var headCount: Int = DEFAULT_HEAD_COUNT,
+    //HEAD 模式下每个章节预取多长时间的音频
+    var headMs: Long = DEFAULT_HEAD_MS
+) {
+
+    enum class Mode {
+        /** Download whole chapters once the current one gets close to its end. */
+        FULL,
+
+        /** Download and pin only the first [headMs] of the next [headCount] chapters. */
+        HEAD
+    }
+
+    /**
+     * Switching modes drops the running prefetch; leaving [Mode.HEAD] also unpins every head.
+     */
+    var mode: Mode = Mode.FULL
+        set(value) {
+            if (field == value) return
+            field = value
+            cancel()
+            if (value != Mode.HEAD) chapterCache.evictor.retainPins(emptyList())
+        }
+
+    private val scope = serviceScope.child(serviceScope.fetch)
+    private var prefetchJob: Job? = null
+    private var pendingUris: List<Uri> = emptyList()
+
+    private val downloadedBytes = AtomicLong()
+
+    val bytesPrefetched: Long get() = downloadedBytes.get()
+
+    val isPrefetching: Boolean get() = prefetchJob?.isActive == true
+
+    /**
+     * Number of chapters the service should hand to [prefetch] in the current [mode].
+     */
+    val targetCount: Int get() = if (mode == Mode.HEAD) headCount else aheadCount
+
+    /**
+     * Makes sure [chapters] end up cached, fully or just their heads depending on [mode]. A call
+     * with the same chapters while the previous one is still running is a no-op; a different
+     * list supersedes it.
+     */
+    fun prefetch(chapters: List<ChapterAudioItem>) {
+        val uris = chapters.map { it.source.toUri() }
+        if (uris == pendingUris && isPrefetching) return
+        prefetchJob?.cancel()
+        pendingUris = uris
+        val headOnly = mode == Mode.HEAD
+        if (headOnly) {
+            // Chapters that left the look-ahead window go back to plain LRU.
+            chapterCache.evictor.retainPins(uris.map { it.toString() })
+        }
+        if (chapters.isEmpty()) return
+        prefetchJob = scope.launch {
+            chapters.forEachIndexed { index, chapter ->
+                if (!isActive) return@launch
+                if (headOnly) {
+                    // The backend gives chapter durations in seconds.
+                    downloadHead(uris[index], TimeUnit.SECONDS.toMillis(chapter.duration))
+                } else {
+                    download(uris[index], C.LENGTH_UNSET.toLong())
+                }
+            }
+        }
+    }
+
+    fun cancel() {
+        prefetchJob?.cancel()
+        pendingUris = emptyList()
+    }
+
+    fun release() {
+        scope.cancel()
+    }
+
+    override fun toString(): String =
+        "ChapterPrefetcher(mode=$mode, running=$isPrefetching, pending=${pendingUris.size}, " +
+                "bytesPrefetched=$bytesPrefetched)"
+
+    private suspend fun downloadHead(uri: Uri, durationMs: Long) {
+        val key = uri.toString()
+        val contentLength = chapterCache.contentLength(key)
+        if (contentLength != C.LENGTH_UNSET.toLong()) {
+            val headBytes = headBytes(contentLength, durationMs)
+            chapterCache.evictor.pin(key, headBytes)
+            if (chapterCache.cache.isCached(key, 0, headBytes)) return
+            download(uri, headBytes)
+        } else {
+            // First time we see this chapter: the length only becomes known once it is opened.
+            download(uri, C.LENGTH_UNSET.toLong()) { openedLength ->
+                headBytes(openedLength, durationMs).also { chapterCache.evictor.pin(key, it) }
+            }
+        }
+    }
+
+    /**
+     * Bytes covering the first [headMs] of a chapter, assuming a roughly constant bitrate. Without
+     * a usable length or duration, falls back to [FALLBACK_BITRATE_BPS].
+     */
+    private fun headBytes(contentLength: Long, durationMs: Long): Long =
+        if (contentLength != C.LENGTH_UNSET.toLong() && durationMs > 0) {
+            minOf(contentLength, contentLength * headMs / durationMs)
+        } else {
+            headMs * FALLBACK_BITRATE_BPS / 8 / 1000
+        }
+
+    /**
+     * Reads [uri] through the cache, which is what writes the bytes to disk. At most [maxBytes]
+     * are read; [limitOnOpen] may tighten that once the resolved length is known.
+     */
+    private suspend fun download(
+        uri: Uri,
+        maxBytes: Long,
+        limitOnOpen: ((Long) -> Long)? = null
+    ) {
+        val key = uri.toString()
+        // A chapter on disk without a seek index is read once more, locally, to build it.
+        val wholeChapter = maxBytes == C.LENGTH_UNSET.toLong()
+        if (chapterCache.isFullyCached(key) && (!wholeChapter || chapterCache.hasSeekIndex(key))) return
+
+        val dataSource = dataSourceFactory.createDataSource()
+        val buffer = ByteArray(BUFFER_SIZE)
+        try {
+            val openedLength = dataSource.open(DataSpec(uri, 0, maxBytes, key))
+            var remaining = limitOnOpen?.invoke(openedLength) ?: maxBytes
+            while (coroutineContext.isActive && remaining != 0L) {
+                val length = if (remaining == C.LENGTH_UNSET.toLong()) {
+                    buffer.size
+                } else {
+                    minOf(remaining, buffer.size.toLong()).toInt()
+                }
+                val read = dataSource.read(buffer, 0, length)
+                if (read == C.RESULT_END_OF_INPUT) break
+                downloadedBytes.addAndGet(read.toLong())
+                if (remaining != C.LENGTH_UNSET.toLong()) remaining -= read
+            }
+        } catch (e: IOException) {
+            // The player will fetch what is missing on its own, so a failed prefetch is harmless.
+            Log.w(TAG, "download: failed to prefetch $uri", e)
+        } finally {
+            Util.closeQuietly(dataSource)
+        }
+    }
+
+    companion object {
+        const val TAG = "ChapterPrefetcher"
+        const val DEFAULT_AHEAD_COUNT = 2
+        const val DEFAULT_HORIZON_MS = 2 * 60 * 1000L
+        const val DEFAULT_HEAD_COUNT = 5
+        const val DEFAULT_HEAD_MS = 20 * 1000L
+        // Typical bitrate of our TTS chapters; 20 s of it is about 160 KB.
+        const val FALLBACK_BITRATE_BPS = 64_000L
+        private const val BUFFER_SIZE = 16 * 1024
+    }
+}
@@ -0,0 +1,64 @@
+package com.hyy.readeraudiosample
+
+/**
+ * Command-to-effect latency of transport commands: the time from a controller issuing a command
+ * to the player reporting that it took effect, across the session binder and whichever thread
+ * the session and the player run on.
+ *
+ * Keeps the last [capacity] samples. [onCommand] and [onEffect] are usually called on different
+ * threads, so every access is synchronized; both are cheap enough for a player callback.
+ */
+class CommandLatencyProbe(capacity: Int = DEFAULT_CAPACITY) {
+
+    private val samples = LongArray(capacity)
+    private var count = 0
+
+    //最近一次还没生效的命令发出的时间
+    private var commandTimeMs = NO_COMMAND
+
+    @Synchronized
+    fun onCommand(nowMs: Long) {
+        commandTimeMs = nowMs
+    }
+
+    /**
+     * Records the latency of the pending command, if any. Effects nobody asked for, such as the
+     * player pausing by itself at the end of the book, are ignored.
+     */
+    @Synchronized
+    fun onEffect(nowMs: Long) {
+        if (commandTimeMs == NO_COMMAND) return
+        samples[count % samples.size] = nowMs - commandTimeMs
+        count++
+        commandTimeMs = NO_COMMAND
+    }
+
+    val sampleCount: Int
+        @Synchronized get() = minOf(count, samples.size)
+
+    /**
+     * The [percent]th percentile of the kept samples in milliseconds, or -1 without samples.
+     */
+    @Synchronized
+    fun percentile(percent: Int): Long {
+        val n = sampleCount
+        if (n == 0) return -1
+        val sorted = samples.copyOf(n).apply { sort() }
+        return sorted[(n - 1) * percent.coerceIn(0, 100) / 100]
+    }
+
+    @Synchronized
+    fun reset() {
+        count = 0
+        commandTimeMs = NO_COMMAND
+    }
+
+    override fun toString(): String =
+        "CommandLatencyProbe(samples=$sampleCount, p50=${percentile(50)}ms, " +
+                "p95=${percentile(95)}ms, max=${percentile(100)}ms)"
+
+    companion object {
+        const val DEFAULT_CAPACITY = 128
+        private const val NO_COMMAND = Long.MIN_VALUE
+    }
+}
@@ -0,0 +1,9 @@
+package com.hyy.readeraudiosample
+
+/**
+ * Whole seconds of a duration in milliseconds, rounded down.
+ *
+ * Kept apart from the Android extensions so the benchmarks can run it on a plain JVM.
+ */
+val Long.toSeconds: Int
+    get() = Math.floor(this / 1E3).toInt()
@@ -0,0 +1,178 @@
+package com.hyy.readeraudiosample
+
+import java.io.IOException
+
+/**
+ * Reads the duration of an MP3 or MP4/M4A file from its headers, with a few small reads instead
+ * of the whole file:
+ * - MP3: the frame count of a Xing, Info or VBRI tag, which is exact; without one, the length over
+ *   the bitrate of the first frame, which is what ExoPlayer's constant bitrate seeker reports too.
+ *   An ID3 tag before the audio is skipped with a second read, however large its cover art is.
+ * - MP4: the duration in the movie header, walking the top-level boxes one read at a time until
+ *   the movie box, which may well come after the media data.
+ *
+ * Raw ADTS AAC has no header with a duration, so it is reported as [UNKNOWN]. Has no Android
+ * dependencies.
+ */
+object DurationProbe {
+
+    const val UNKNOWN = -1L
+
+    /**
+     * Random access to a file, however it is fetched.
+     */
+    interface Source {
+        /**
+         * The length of the file, or [UNKNOWN]; may only be known after the first [read].
+         */
+        val length: Long
+
+        /**
+         * Reads up to [length] bytes at [position] into [buffer], fewer only at the end of the
+         * file.
+         *
+         * @return the number of bytes read.
+         */
+        @Throws(IOException::class)
+        fun read(position: Long, buffer: ByteArray, length: Int): Int
+    }
+
+    /**
+     * The duration of the file behind [source] in microseconds, or [UNKNOWN].
+     */
+    @Throws(IOException::class)
+    fun durationUs(source: Source): Long {
+        val head = ByteArray(HEAD_BYTES)
+        val read = source.read(0, head, head.size)
+        if (read < MIN_HEAD_BYTES) return UNKNOWN
+        return if (Mp3Header.readInt(head, 4) == FTYP) {
+            mp4DurationUs(source)
+        } else {
+            mp3DurationUs(source, head, read)
+        }
+    }
+
+    private fun mp3DurationUs(source: Source, head: ByteArray, headLength: Int): Long {
+        var base = 0L
+        var offset = 0
+        var length = headLength
+        val tagSize = Mp3Header.id3TagSize(head, 0)
+        if (tagSize >= 0) {
+            if (tagSize + MIN_HEAD_BYTES <= headLength) {
+                offset = tagSize.toInt()
+            } else {
+                base = tagSize
+                length = source.read(base, head, head.size)
+            }
+        }
+        val frame = firstFrame(head, offset, length)
+        if (frame < 0) return UNKNOWN
+        val header = Mp3Header.readInt(head, frame)
+        val sampleRate = Mp3Header.sampleRate(header)
+        val samplesPerFrame = Mp3Header.samplesPerFrame(header)
+        val frameLength = length - frame
+
+        val xingOffset = frame + Mp3Header.xingOffset(header)
+        if (Mp3Header.isInfoFrame(header, head, frame, frameLength) && xingOffset + 12 <= length) {
+            val tag = Mp3Header.readInt(head, xingOffset)
+            if (tag == Mp3Header.XING || tag == Mp3Header.INFO) {
+                // Flag 1: the frame count follows the flags.
+                if (Mp3Header.readInt(head, xingOffset + 4) and 1 != 0) {
+                    val frames = Mp3Header.readInt(head, xingOffset + 8).toLong() and 0xFFFFFFFFL
+                    return frames * samplesPerFrame * MICROS_PER_SECOND / sampleRate
+                }
+            } else if (frame + VBRI_FRAMES_OFFSET + 4 <= length) {
+                val frames = Mp3Header.readInt(head, frame + VBRI_FRAMES_OFFSET).toLong() and 0xFFFFFFFFL
+                return frames * samplesPerFrame * MICROS_PER_SECOND / sampleRate
+            }
+        }
+        val fileLength = source.length
+        if (fileLength == UNKNOWN) return UNKNOWN
+        return (fileLength - base - frame) * 8 * MICROS_PER_SECOND / Mp3Header.bitrate(header)
+    }
+
+    /**
+     * Offset of the first frame header in [bytes] from [offset] that the next frame header
+     * confirms, if that one is in [bytes] too; -1 if there is none.
+     */
+    private fun firstFrame(bytes: ByteArray, offset: Int, length: Int): Int {
+        for (i in offset..length - 4) {
+            val header = Mp3Header.readInt(bytes, i)
+            if (!Mp3Header.isValid(header)) continue
+            val next = i + Mp3Header.frameSize(header)
+            if (next + 4 > length) return i
+            val nextHeader = Mp3Header.readInt(bytes, next)
+            val mask = Mp3Header.CONSTANT_HEADER_MASK
+            if (Mp3Header.isValid(nextHeader) && nextHeader and mask == header and mask) return i
+        }
+        return -1
+    }
+
+    private fun mp4DurationUs(source: Source): Long {
+        val box = ByteArray(MVHD_BYTES)
+        var position = 0L
+        var end = source.length
+        var boxes = 0
+        // Top level first; once in the movie box, its children.
+        while (boxes++ < MAX_BOXES && (end == UNKNOWN || position + 8 <= end)) {
+            val read = source.read(position, box, 16)
+            if (read < 8) return UNKNOWN
+            var size = Mp3Header.readInt(box, 0).toLong() and 0xFFFFFFFFL
+            val type = Mp3Header.readInt(box, 4)
+            var headerSize = 8
+            if (size == 1L) {
+                if (read < 16) return UNKNOWN
+                size = (Mp3Header.readInt(box, 8).toLong() shl 32) or
+                        (Mp3Header.readInt(box, 12).toLong() and 0xFFFFFFFFL)
+                headerSize = 16
+            } else if (size == 0L) {
+                // Runs to the end of the file.
+                if (type != MOOV) return UNKNOWN
+                size = if (end == UNKNOWN) Long.MAX_VALUE - position else end - position
+            }
+            if (size < headerSize) return UNKNOWN
+            when (type) {
+                MOOV -> {
+                    end = position + size
+                    position += headerSize
+                }
+                MVHD -> return mvhdDurationUs(source, position + headerSize, box)
+                else -> position += size
+            }
+        }
+        return UNKNOWN
+    }
+
+    private fun mvhdDurationUs(source: Source, position: Long, box: ByteArray): Long {
+        val read = source.read(position, box, MVHD_BYTES)
+        val version = if (read > 0) box[0].toInt() else return UNKNOWN
+        val timescale: Long
+        val duration: Long
+        if (version == 1) {
+            if (read < 32) return UNKNOWN
+            timescale = Mp3Header.readInt(box, 20).toLong() and 0xFFFFFFFFL
+            duration = (Mp3Header.readInt(box, 24).toLong() shl 32) or
+                    (Mp3Header.readInt(box, 28).toLong() and 0xFFFFFFFFL)
+        } else {
+            if (read < 20) return UNKNOWN
+            timescale = Mp3Header.readInt(box, 12).toLong() and 0xFFFFFFFFL
+            duration = Mp3Header.readInt(box, 16).toLong() and 0xFFFFFFFFL
+            // All ones means unknown.
+            if (duration == 0xFFFFFFFFL) return UNKNOWN
+        }
+        if (timescale == 0L || duration < 0) return UNKNOWN
+        return duration * MICROS_PER_SECOND / timescale
+    }
+
+    // Enough for the first frame and its tag, even after a small ID3 tag.
+    private const val HEAD_BYTES = 4096
+    private const val MIN_HEAD_BYTES = 16
+    private const val MICROS_PER_SECOND = 1_000_000L
+    // VBRI: tag, version, delay, quality and byte count come before the frame count.
+    private const val VBRI_FRAMES_OFFSET = Mp3Header.VBRI_OFFSET + 14
+    private const val MAX_BOXES = 64
+    private const val MVHD_BYTES = 32
+    private const val FTYP = 0x66747970 // "ftyp"
+    private const val MOOV = 0x6D6F6F76 // "moov"
+    private const val MVHD = 0x6D766864 // "mvhd"
+}
@@ -0,0 +1,162 @@
+package com.hyy.readeraudiosample
+
+import android.net.Uri
+import android.util.Log
+import androidx.core.net.toUri
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.util.Util
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.withContext
+import java.io.IOException
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Learns the exact duration of queued chapters in the background, from a few small ranged reads
+ * of their headers (see [DurationProbe]), instead of trusting the whole seconds the backend sends.
+ *
+ * At most [parallelism] chapters are probed at a time, on [ServiceScope.fetch]. Results are kept
+ * in the [ChapterCache] with the chapter, like its seek index, so a file is probed once for as long
+ * as any of it stays cached and the store is bounded by the cache. A seek index built
+ * for the chapter is exact as well and is used instead of probing. Chapters whose header doesn't
+ * tell the duration aren't probed again until the service restarts; a failed read is retried.
+ */
+class DurationProber(
+    private val chapterCache: ChapterCache,
+    private val dataSourceFactory: DataSource.Factory,
+    private val serviceScope: ServiceScope,
+    private val parallelism: Int = DEFAULT_PARALLELISM
+) {
+
+    class Chapter(val id: String, val source: String)
+
+    private val scope = serviceScope.child(serviceScope.fetch)
+    private var probeJob: Job? = null
+
+    private val probed = AtomicInteger()
+    private val failed = AtomicInteger()
+
+    //头部读不出时长的章节 id，本次运行内不再探测
+    private val unknownIds: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap())
+
+    /**
+     * The duration probed earlier for [source], or [C.TIME_UNSET].
+     */
+    fun knownDurationMs(source: String): Long = chapterCache.durationMs(source.toUri().toString())
+
+    /**
+     * Probes the [chapters] whose duration isn't known yet, in order, and hands every result to
+     * [onDuration] on the playback thread. A new call supersedes the previous one.
+     */
+    fun probe(chapters: List<Chapter>, onDuration: (id: String, durationMs: Long) -> Unit) {
+        probeJob?.cancel()
+        if (chapters.isEmpty()) return
+        val permits = Semaphore(parallelism)
+        probeJob = scope.launch {
+            for (chapter in chapters) {
+                if (!isActive) return@launch
+                if (chapter.id in unknownIds || knownDurationMs(chapter.source) != C.TIME_UNSET) continue
+                permits.acquire()
+                launch {
+                    try {
+                        val durationMs = durationMs(chapter.source)
+                        if (durationMs == C.TIME_UNSET) {
+                            unknownIds += chapter.id
+                        } else {
+                            chapterCache.putDurationMs(chapter.source.toUri().toString(), durationMs)
+                            withContext(serviceScope.playback) { onDuration(chapter.id, durationMs) }
+                        }
+                    } catch (e: IOException) {
+                        failed.incrementAndGet()
+                        Log.w(TAG, "probe: failed to read ${chapter.source}", e)
+                    } finally {
+                        permits.release()
+                    }
+                }
+            }
+        }
+    }
+
+    fun release() {
+        scope.cancel()
+    }
+
+    override fun toString(): String =
+        "DurationProber(running=${probeJob?.isActive == true}, probed=$probed, failed=$failed, " +
+                "unknown=${unknownIds.size})"
+
+    /**
+     * The duration of [source], or [C.TIME_UNSET] if its header doesn't tell.
+     */
+    @Throws(IOException::class)
+    private fun durationMs(source: String): Long {
+        val uri = source.toUri()
+        chapterCache.seekIndex(uri.toString())?.let { return TimeUnit.MICROSECONDS.toMillis(it.durationUs) }
+        val durationUs = DurationProbe.durationUs(RangeSource(uri))
+        if (durationUs == DurationProbe.UNKNOWN) {
+            failed.incrementAndGet()
+            return C.TIME_UNSET
+        }
+        probed.incrementAndGet()
+        return TimeUnit.MICROSECONDS.toMillis(durationUs)
+    }
+
+    /**
+     * Reads [uri] a range at a time through the cache, so probing a chapter that is on disk costs
+     * no network, and the head a probe fetches stays there for playback.
+     */
+    private inner class RangeSource(private val uri: Uri) : DurationProbe.Source {
+
+        private val key = uri.toString()
+
+        override var length: Long = lengthOrUnknown(chapterCache.contentLength(key))
+            private set
+
+        override fun read(position: Long, buffer: ByteArray, length: Int): Int {
+            val dataSource = dataSourceFactory.createDataSource()
+            try {
+                dataSource.open(DataSpec(uri, position, length.toLong(), key))
+                if (this.length == DurationProbe.UNKNOWN) {
+                    this.length = contentRangeLength(dataSource.responseHeaders)
+                }
+                var read = 0
+                while (read < length) {
+                    val result = dataSource.read(buffer, read, length - read)
+                    if (result == C.RESULT_END_OF_INPUT) break
+                    read += result
+                }
+                return read
+            } finally {
+                Util.closeQuietly(dataSource)
+            }
+        }
+    }
+
+    companion object {
+        const val TAG = "DurationProber"
+        // Probes wait on round trips rather than bandwidth, but share the fetch pool with
+        // prefetch and covers.
+        const val DEFAULT_PARALLELISM = 2
+
+        private fun lengthOrUnknown(length: Long) =
+            if (length == C.LENGTH_UNSET.toLong()) DurationProbe.UNKNOWN else length
+
+        /**
+         * The total length from a "Content-Range: bytes 0-4095/1234567" response header.
+         */
+        private fun contentRangeLength(headers: Map<String, List<String>>): Long {
+            val value = headers.entries
+                .firstOrNull { it.key.equals("Content-Range", ignoreCase = true) }
+                ?.value?.firstOrNull() ?: return DurationProbe.UNKNOWN
+            return value.substringAfterLast('/', "").toLongOrNull() ?: DurationProbe.UNKNOWN
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.hyy.readeraudiosample
+
+import java.io.PrintWriter
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * The last [capacity] events of the hot paths, kept as primitives in one preallocated array. A
+ * record costs a counter increment and a few ordered stores, with no allocation, no formatting,
+ * no lock and no logcat IPC; events only become text in [dump].
+ *
+ * Any thread may [record]. Each writer claims a sequence number, then fills the slot it maps to
+ * between two stores of the slot's stamp, like a seqlock; [dump] skips slots whose stamp changed
+ * while it read them, so it never prints half-written events and never blocks a writer. The only
+ * race left is a writer lapped by [capacity] others in the middle of its own record, which can
+ * leave a mixed record behind.
+ */
+class EventRing(capacity: Int = DEFAULT_CAPACITY) {
+
+    // Rounded up to a power of two, so a sequence number maps to its slot with a mask.
+    val capacity: Int = Integer.highestOneBit(maxOf(capacity, 2) - 1) shl 1
+
+    private val mask = this.capacity - 1L
+
+    // Per slot: stamp, type and window index, time, position, argument.
+    private val slots = AtomicLongArray(this.capacity * SLOT_LONGS)
+
+    //下一个事件的序号，也就是一共记录过多少个事件
+    private val next = AtomicLong()
+
+    /**
+     * Records an event of [type] at [timeMs]. [arg] is whatever the type needs, such as the new
+     * playback state.
+     */
+    fun record(type: Int, timeMs: Long, windowIndex: Int, positionMs: Long, arg: Long = 0) {
+        val sequence = next.getAndIncrement()
+        val base = ((sequence and mask) * SLOT_LONGS).toInt()
+        // Ordered stores are enough: each one keeps the stores before it before it, so the
+        // fields land after the WRITING stamp and before the final one, without a full fence.
+        slots.lazySet(base, WRITING)
+        slots.lazySet(base + 1, (type.toLong() shl 32) or (windowIndex.toLong() and 0xFFFFFFFFL))
+        slots.lazySet(base + 2, timeMs)
+        slots.lazySet(base + 3, positionMs)
+        slots.lazySet(base + 4, arg)
+        slots.lazySet(base, sequence)
+    }
+
+    val recordedCount: Long get() = next.get()
+
+    /**
+     * Prints the kept events, oldest first, one per line.
+     */
+    fun dump(writer: PrintWriter) {
+        val end = next.get()
+        val start = maxOf(0L, end - capacity)
+        writer.println("events: ${end - start} of $end")
+        for (sequence in start until end) {
+            val base = ((sequence and mask) * SLOT_LONGS).toInt()
+            val stamp = slots.get(base)
+            val typeAndWindow = slots.get(base + 1)
+            val time = slots.get(base + 2)
+            val position = slots.get(base + 3)
+            val arg = slots.get(base + 4)
+            // Still being written, or already overwritten by a newer event.
+            if (stamp != sequence || slots.get(base) != stamp) continue
+            val type = (typeAndWindow ushr 32).toInt()
+            writer.println(
+                "  $time ${typeName(type)} window=${typeAndWindow.toInt()} " +
+                        "position=$position arg=$arg"
+            )
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 256
+
+        private const val SLOT_LONGS = 5
+        private const val WRITING = -1L
+
+        //事件类型，arg 的含义见各自的注释
+        /** arg: the new playback state. */
+        const val PLAYER_STATE = 1
+        /** arg: 1 when playing, 0 when not. */
+        const val IS_PLAYING = 2
+        /** arg: the discontinuity reason. */
+        const val DISCONTINUITY = 3
+        /** arg: the speed in percent. */
+        const val PLAYBACK_PARAMETERS = 4
+        /** arg: the error type. */
+        const val PLAYER_ERROR = 5
+        /** Client side, arg: the session's playback state. */
+        const val SESSION_STATE = 6
+        /** Client side, arg: the hash of the media id; position is the duration. */
+        const val SESSION_METADATA = 7
+        /** arg: the number of children sent. */
+        const val LOAD_CHILDREN = 8
+        /** arg: the number of chapters mapped to metadata. */
+        const val CREATE_METADATA = 9
+        /** Window is the chapter index the playlist slid to; arg: 1 if it is the last chapter. */
+        const val CHAPTER_CHANGED = 10
+        /** Client side, as the UI applies it; arg: the playback state. */
+        const val UI_STATE = 11
+
+        fun typeName(type: Int): String = when (type) {
+            PLAYER_STATE -> "state"
+            IS_PLAYING -> "isPlaying"
+            DISCONTINUITY -> "discontinuity"
+            PLAYBACK_PARAMETERS -> "parameters"
+            PLAYER_ERROR -> "error"
+            SESSION_STATE -> "sessionState"
+            SESSION_METADATA -> "sessionMetadata"
+            LOAD_CHILDREN -> "loadChildren"
+            CREATE_METADATA -> "createMetadata"
+            CHAPTER_CHANGED -> "chapter"
+            UI_STATE -> "uiState"
+            else -> "type$type"
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.hyy.readeraudiosample
+
+import android.os.SystemClock
+
+/**
+ * Hot-path tracing in place of Log.d: the service, the session connection and the view model all
+ * record into one process-wide [EventRing], which the service's dump() prints.
+ */
+object EventTrace {
+
+    const val NO_WINDOW = -1
+
+    val ring = EventRing()
+
+    /**
+     * Records an event of [type] now; see the [EventRing] constants for what the fields mean.
+     */
+    fun record(type: Int, windowIndex: Int = NO_WINDOW, positionMs: Long = 0, arg: Long = 0) {
+        ring.record(type, SystemClock.elapsedRealtime(), windowIndex, positionMs, arg)
+    }
+}
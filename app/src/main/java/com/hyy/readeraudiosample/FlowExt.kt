@@ -0,0 +1,16 @@
+package com.hyy.readeraudiosample
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.transform
+
+/**
+ * Emits at most one value every [periodMs]: the first value right away, then the latest value
+ * seen while waiting. Values in between are dropped, the last one never is.
+ */
+fun <T> Flow<T>.throttleLatest(periodMs: Long): Flow<T> =
+    if (periodMs <= 0) this else conflate().transform {
+        emit(it)
+        delay(periodMs)
+    }
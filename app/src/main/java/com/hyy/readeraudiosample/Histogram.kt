@@ -0,0 +1,85 @@
+package com.hyy.readeraudiosample
+
+/**
+ * A fixed-bucket histogram of non-negative longs. Recording is a short scan over [bounds] and
+ * allocates nothing, so it can sit on the player's callback path.
+ *
+ * Bucket i counts values up to and including `bounds[i]`; the last bucket counts everything above
+ * the last bound. Percentiles are therefore upper bounds, exact only to the bucket.
+ */
+class Histogram(val bounds: LongArray) {
+
+    val counts = LongArray(bounds.size + 1)
+
+    var count = 0L
+        private set
+
+    var sum = 0L
+        private set
+
+    var max = 0L
+        private set
+
+    fun record(value: Long) {
+        var bucket = 0
+        while (bucket < bounds.size && value > bounds[bucket]) bucket++
+        counts[bucket]++
+        count++
+        sum += value
+        if (value > max) max = value
+    }
+
+    val mean: Long get() = if (count == 0L) 0L else sum / count
+
+    /**
+     * The upper bound of the bucket holding the [percent]th percentile, [max] for the last one,
+     * or -1 when nothing has been recorded.
+     */
+    fun percentile(percent: Int): Long {
+        if (count == 0L) return -1
+        val rank = maxOf(1L, (count * percent.coerceIn(0, 100) + 99) / 100)
+        var seen = 0L
+        for (bucket in counts.indices) {
+            seen += counts[bucket]
+            if (seen >= rank) return if (bucket < bounds.size) minOf(bounds[bucket], max) else max
+        }
+        return max
+    }
+
+    fun reset() {
+        counts.fill(0)
+        count = 0
+        sum = 0
+        max = 0
+    }
+
+    override fun toString(): String =
+        "n=$count, mean=$mean, p50<=${percentile(50)}, p95<=${percentile(95)}, max=$max"
+
+    companion object {
+        /**
+         * A histogram with [bounds], holding what another one with the same bounds recorded.
+         */
+        fun of(bounds: LongArray, counts: LongArray, sum: Long, max: Long): Histogram =
+            Histogram(bounds).also {
+                require(counts.size == bounds.size + 1) { "${counts.size} counts for ${bounds.size} bounds" }
+                counts.copyInto(it.counts)
+                it.count = counts.sum()
+                it.sum = sum
+                it.max = max
+            }
+
+        /**
+         * [n] bounds starting at [first], each [factor] times the previous one.
+         */
+        fun exponentialBounds(first: Long, factor: Int, n: Int): LongArray {
+            val bounds = LongArray(n)
+            var bound = first
+            for (i in 0 until n) {
+                bounds[i] = bound
+                bound *= factor
+            }
+            return bounds
+        }
+    }
+}
@@ -17,7 +17,6 @@ import android.widget.Toast
 import androidx.appcompat.widget.AppCompatButton
 import androidx.lifecycle.ViewModelProvider
 import com.hyy.readeraudiosample.databinding.ActivityMainBinding
-import com.hyy.readeraudiosample.model.NowPlayingMetadata
 
 class MainActivity : AppCompatActivity() {
     companion object {
@@ -29,6 +28,8 @@ class MainActivity : AppCompatActivity() {
     }
 
     private var startTrackingTouch: Boolean = false
+    //进度文字当前显示的秒数
+    private var shownSecond = PlaybackProgress.UNKNOWN_SECOND - 1
     private lateinit var binding: ActivityMainBinding
     private val viewModel: MainViewModel by lazy {
         ViewModelProvider(
@@ -102,10 +103,14 @@ class MainActivity : AppCompatActivity() {
             binding.ibPlay.setImageResource(res)
         }
 
-        viewModel.playbackPosition.observe(this) { position ->
-            binding.tvPlayerProgress.text = NowPlayingMetadata.timestampToMSS(this, position)
+        viewModel.playbackPosition.observe(this) { progress ->
+            // The label chars are reused, so only touch the TextView when the second changed.
+            if (progress.second != shownSecond) {
+                shownSecond = progress.second
+                binding.tvPlayerProgress.setText(progress.text, 0, progress.textLength)
+            }
             if (startTrackingTouch) return@observe
-            binding.sbTimeline.progress = position.toSeconds
+            binding.sbTimeline.progress = maxOf(0, progress.second)
         }
 
         viewModel.mediaMetadata.observe(this) { nowPlayingMetaData ->
@@ -2,24 +2,29 @@ package com.hyy.readeraudiosample
 
 import android.app.Application
 import android.media.session.PlaybackState
-import android.os.Handler
-import android.os.Looper
 import android.support.v4.media.MediaBrowserCompat
-import android.support.v4.media.MediaMetadataCompat
 import android.support.v4.media.session.PlaybackStateCompat
 import android.util.Log
 import android.widget.Toast
 import androidx.core.os.bundleOf
 import androidx.lifecycle.MutableLiveData
-import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
-import com.example.android.uamp.media.extensions.currentPlayBackPosition
 import com.example.android.uamp.media.extensions.isPlayEnabled
 import com.example.android.uamp.media.extensions.isPlaying
 import com.example.android.uamp.media.extensions.isPrepared
 import com.hyy.readeraudiosample.model.ChapterAudioItem
 import com.hyy.readeraudiosample.model.NowPlayingMetadata
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
 
 /**
  *Create by hyy on 2020/12/14
@@ -31,25 +36,22 @@ class MainViewModel(
 
     companion object {
         const val TAG = "MainViewModel"
-        const val POSITION_UPDATE_INTERVAL_MILLIS = 100L
+        const val STATE_UPDATE_INTERVAL_MILLIS = 16L
     }
 
     private var preloadDone: Boolean = false
-    private var updatePosition: Boolean = true
 
-    //默认播放状态
-    private var playbackState: PlaybackStateCompat = EMPTY_PLAYBACK_STATE
+    //写目录文件等 IO 工作
+    private val ioScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
     //当前播放位置
-    val playbackPosition = MutableLiveData<Long>().apply {
-        postValue(0L)
-    }
+    val playbackPosition = PlaybackPositionLiveData()
     //当前播放元数据
     val mediaMetadata = MutableLiveData<NowPlayingMetadata>()
     val mediaButtonRes = MutableLiveData<Int>().apply {
         postValue(R.drawable.ic_player_start)
     }
 
-    private val handler = Handler(Looper.getMainLooper())
     private val subscriptionCallback = object : MediaBrowserCompat.SubscriptionCallback() {
         override fun onChildrenLoaded(
             parentId: String,
@@ -69,28 +71,11 @@ class MainViewModel(
         }
     }
 
-    /**
-     * When the session's [PlaybackStateCompat] changes, the [mediaItems] need to be updated
-     * so the correct [MediaItemData.playbackRes] is displayed on the active item.
-     * (i.e.: play/pause button or blank)
-     * 播放状态监听
-     */
-    private val playbackStateObserver = Observer<PlaybackStateCompat> {
-        playbackState = it ?: EMPTY_PLAYBACK_STATE
-        val metadata = musicServiceConnection.nowPlaying.value ?: NOTHING_PLAYING
-        updateState(playbackState, metadata)
-    }
+    //界面协程，状态流在这里收集
+    private val uiScope = MainScope()
 
-    /**
-     * When the session's [MediaMetadataCompat] changes, the [mediaItems] need to be updated
-     * as it means the currently active item has changed. As a result, the new, and potentially
-     * old item (if there was one), both need to have their [MediaItemData.playbackRes]
-     * changed. (i.e.: play/pause button or blank)
-     * 播放的元数据监听 （播放元数据可以认为是一首音乐数据）
-     */
-    private val mediaMetadataObserver = Observer<MediaMetadataCompat> {
-        updateState(playbackState, it)
-    }
+    //上一次生成 NowPlayingMetadata 用的状态，元数据没变就不重新生成
+    private var lastState: PlayerState? = null
 
     init {
         initConnection()
@@ -98,38 +83,28 @@ class MainViewModel(
 
     private fun initConnection() {
         musicServiceConnection.run {
-            playbackState.observeForever(playbackStateObserver)
-            nowPlaying.observeForever(mediaMetadataObserver)
+            // One UI update per frame interval at most, however fast the session reports.
+            uiScope.launch {
+                playerState(STATE_UPDATE_INTERVAL_MILLIS).collect { updateState(it) }
+            }
             //subscribe(MY_MEDIA_ROOT_ID, subscriptionCallback)
-            checkPlaybackPosition()
         }
     }
 
-    /**
-     * Internal function that recursively calls itself every [POSITION_UPDATE_INTERVAL_MILLIS] ms
-     * to check the current playback position and updates the corresponding LiveData object when it
-     * has changed.
-     */
-    private fun checkPlaybackPosition(): Boolean = handler.postDelayed({
-        val currPosition = playbackState.currentPlayBackPosition
-        if (playbackPosition.value != currPosition)
-            playbackPosition.postValue(currPosition)
-        if (updatePosition)
-            checkPlaybackPosition()
-    }, POSITION_UPDATE_INTERVAL_MILLIS)
-
-    private fun updateState(
-        playbackState: PlaybackStateCompat,
-        mediaMetadata: MediaMetadataCompat
-    ) {
+    private fun updateState(state: PlayerState) {
+        val playbackState = state.playbackState
+        val mediaMetadata = state.metadata
+        val metadataChanged = lastState?.hasSameMetadata(state) != true
+        lastState = state
+        playbackPosition.setPlaybackState(playbackState)
 
+        EventTrace.record(
+            EventRing.UI_STATE,
+            positionMs = playbackState.position,
+            arg = playbackState.state.toLong()
+        )
         // Only update media item once we have duration available
-        Log.d(TAG, "updateState: mediaMetadata.id-->${mediaMetadata.id}")
-        Log.d(TAG, "updateState: mediaMetadata.duration-->${mediaMetadata.duration}")
-        Log.d(TAG, "updateState: mediaMetadata.title-->${mediaMetadata.title}")
-        Log.d(TAG, "updateState: mediaMetadata.albumArtUri-->${mediaMetadata.albumArtUri}")
-        Log.d(TAG, "updateState: mediaMetadata.displaySubtitle-->${mediaMetadata.displaySubtitle}")
-        if (mediaMetadata.duration != 0L && mediaMetadata.id != null) {
+        if (metadataChanged && mediaMetadata.duration != 0L && mediaMetadata.id != null) {
             val nowPlayingMetadata = NowPlayingMetadata(
                 mediaMetadata.id!!,
                 mediaMetadata.albumArtUri,
@@ -166,25 +141,23 @@ class MainViewModel(
         super.onCleared()
         musicServiceConnection.unsubscribe(MY_MEDIA_ROOT_ID, subscriptionCallback)
 
-        // Remove the permanent observers from the MusicServiceConnection.
-        musicServiceConnection.playbackState.removeObserver(playbackStateObserver)
-        musicServiceConnection.nowPlaying.removeObserver(mediaMetadataObserver)
+        // Stop collecting the MusicServiceConnection's state.
+        uiScope.cancel()
 
-        // Stop updating the position
-        updatePosition = false
+        ioScope.cancel()
     }
 
     fun playMediaId() {
-        val nowPlaying = musicServiceConnection.nowPlaying.value
+        val nowPlaying = musicServiceConnection.playerState.value.metadata
         val transportControls = musicServiceConnection.transportControls
 
-        Log.d(TAG, "playMediaId:id---> ${nowPlaying?.id}")
-        val isPrepared = musicServiceConnection.playbackState.value?.isPrepared ?: false
+        Log.d(TAG, "playMediaId:id---> ${nowPlaying.id}")
+        val isPrepared = musicServiceConnection.playerState.value.playbackState.isPrepared
         Log.d(TAG, "playMediaId: isPrepared-->${isPrepared}")
 
 //        if (isPrepared && mediaId == nowPlaying?.id) {
         if (isPrepared) {
-            musicServiceConnection.playbackState.value?.let { playbackState ->
+            musicServiceConnection.playerState.value.playbackState.let { playbackState ->
                 when {
                     playbackState.isPlaying -> transportControls.pause()
                     playbackState.isPlayEnabled -> {
@@ -224,14 +197,36 @@ class MainViewModel(
     }
 
     fun addMediaItem() {
-        //可以通过这里预加载下个章节的音频文件 通过过bundle 吧
-        val bundle = bundleOf()
-        bundle.putParcelableArrayList(ACTION_ADD_MEDIA_ITEM, createTestChapterAudioItem2())
-        musicServiceConnection.setCustomAction(ACTION_ADD_MEDIA_ITEM, bundle)
+        //可以通过这里预加载下个章节的音频文件 章节多时会分页发送给服务
+        musicServiceConnection.addChapters(createTestChapterAudioItem2()) { added, success ->
+            Log.d(TAG, "addMediaItem: added $added chapters, success $success")
+        }
         //musicServiceConnection.transportControls.prepareFromMediaId()
         //musicServiceConnection.transportControls.
     }
 
+    /**
+     * Hands a whole book to the service as a [ChapterCatalog] file: the chapters are written once
+     * off the main thread, and only the file's path crosses the binder.
+     */
+    fun openBook(bookId: String, chapters: List<ChapterAudioItem>) {
+        ioScope.launch {
+            val dir = File(app.filesDir, ChapterCatalog.CATALOG_DIR_NAME).apply { mkdirs() }
+            val file = File(dir, "$bookId.catalog")
+            try {
+                ChapterCatalog.write(file, chapters)
+            } catch (e: IOException) {
+                Log.w(TAG, "openBook: failed to write $file", e)
+                return@launch
+            }
+            withContext(Dispatchers.Main) {
+                musicServiceConnection.openCatalog(file) { size ->
+                    Log.d(TAG, "openBook: $bookId opened with $size chapters")
+                }
+            }
+        }
+    }
+
     fun createTestChapterAudioItem1() : ArrayList<ChapterAudioItem>{
         return arrayListOf(TestDataFactory.mediaItem1(), TestDataFactory.mediaItem2(), TestDataFactory.mediaItem3())
     }
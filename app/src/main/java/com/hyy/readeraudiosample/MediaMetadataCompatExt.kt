@@ -6,6 +6,8 @@ import android.support.v4.media.MediaBrowserCompat.MediaItem
 import android.support.v4.media.MediaDescriptionCompat
 import android.support.v4.media.MediaMetadataCompat
 import androidx.core.net.toUri
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory
+import com.google.android.exoplayer2.extractor.ExtractorsFactory
 import com.google.android.exoplayer2.source.ConcatenatingMediaSource
 import com.google.android.exoplayer2.source.ProgressiveMediaSource
 import com.google.android.exoplayer2.upstream.DataSource
@@ -247,10 +249,15 @@ inline var MediaMetadataCompat.Builder.flag: Int
 /**
  * Extension method for building an [ExtractorMediaSource] from a [MediaMetadataCompat] object.
  *
- * For convenience, place the [MediaDescriptionCompat] into the tag so it can be retrieved later.
+ * For convenience, place the [MediaMetadataCompat] into the tag so it can be retrieved later.
  */
-fun MediaMetadataCompat.toMediaSource(dataSourceFactory: DataSource.Factory) =
-    ProgressiveMediaSource.Factory(dataSourceFactory).createMediaSource(mediaUri)
+fun MediaMetadataCompat.toMediaSource(
+    dataSourceFactory: DataSource.Factory,
+    extractorsFactory: ExtractorsFactory = DefaultExtractorsFactory()
+) =
+    ProgressiveMediaSource.Factory(dataSourceFactory, extractorsFactory)
+        .setTag(this)
+        .createMediaSource(mediaUri)
 
 /**
  * Extension method for building a [ConcatenatingMediaSource] given a [List]
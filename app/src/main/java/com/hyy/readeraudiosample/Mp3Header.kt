@@ -0,0 +1,139 @@
+package com.hyy.readeraudiosample
+
+/**
+ * MPEG audio frame headers and the tags around them, as far as [Mp3SeekIndex] and [DurationProbe]
+ * need them. A header is the first four bytes of a frame, read big-endian into an int.
+ */
+internal object Mp3Header {
+
+    // Sync, version, layer and sample rate; what has to stay the same across frames.
+    const val CONSTANT_HEADER_MASK = 0xFFFE0C00.toInt()
+
+    const val ID3_HEADER_BYTES = 10
+
+    const val XING = 0x58696E67 // "Xing"
+    const val INFO = 0x496E666F // "Info"
+    const val VBRI = 0x56425249 // "VBRI"
+    const val VBRI_OFFSET = 36
+
+    private const val LAYER_III = 1
+    private const val LAYER_II = 2
+    private const val LAYER_I = 3
+    private const val VERSION_MPEG1 = 3
+
+    private val SAMPLE_RATES_MPEG1 = intArrayOf(44100, 48000, 32000)
+
+    // kbps by bitrate index 1..14.
+    private val BITRATES_V1_L1 = intArrayOf(32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448)
+    private val BITRATES_V1_L2 = intArrayOf(32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384)
+    private val BITRATES_V1_L3 = intArrayOf(32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320)
+    private val BITRATES_V2_L1 = intArrayOf(32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256)
+    private val BITRATES_V2 = intArrayOf(8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160)
+
+    private fun version(header: Int) = (header ushr 19) and 3
+
+    private fun layer(header: Int) = (header ushr 17) and 3
+
+    fun isValid(header: Int): Boolean =
+        header and 0xFFE00000.toInt() == 0xFFE00000.toInt() &&
+                version(header) != 1 &&
+                layer(header) != 0 &&
+                (header ushr 12) and 0xF != 0 && (header ushr 12) and 0xF != 0xF &&
+                (header ushr 10) and 3 != 3
+
+    fun sampleRate(header: Int): Int {
+        val rate = SAMPLE_RATES_MPEG1[(header ushr 10) and 3]
+        return when (version(header)) {
+            VERSION_MPEG1 -> rate
+            2 -> rate / 2
+            else -> rate / 4
+        }
+    }
+
+    fun samplesPerFrame(header: Int): Int = when {
+        layer(header) == LAYER_I -> 384
+        layer(header) == LAYER_II || version(header) == VERSION_MPEG1 -> 1152
+        else -> 576
+    }
+
+    /**
+     * Bits per second.
+     */
+    fun bitrate(header: Int): Int {
+        val version = version(header)
+        val layer = layer(header)
+        val bitrates = when {
+            version == VERSION_MPEG1 && layer == LAYER_I -> BITRATES_V1_L1
+            version == VERSION_MPEG1 && layer == LAYER_II -> BITRATES_V1_L2
+            version == VERSION_MPEG1 -> BITRATES_V1_L3
+            layer == LAYER_I -> BITRATES_V2_L1
+            else -> BITRATES_V2
+        }
+        return bitrates[((header ushr 12) and 0xF) - 1] * 1000
+    }
+
+    /**
+     * Bytes in the frame, header included.
+     */
+    fun frameSize(header: Int): Int {
+        val bitrate = bitrate(header)
+        val sampleRate = sampleRate(header)
+        val padding = (header ushr 9) and 1
+        return when {
+            layer(header) == LAYER_I -> (12 * bitrate / sampleRate + padding) * 4
+            version(header) == VERSION_MPEG1 || layer(header) == LAYER_II ->
+                144 * bitrate / sampleRate + padding
+            else -> 72 * bitrate / sampleRate + padding
+        }
+    }
+
+    /**
+     * Where in a layer III frame a Xing or Info tag would start, after the side information.
+     */
+    fun xingOffset(header: Int): Int {
+        val mono = (header ushr 6) and 3 == 3
+        return if (version(header) == VERSION_MPEG1) {
+            if (mono) 21 else 36
+        } else {
+            if (mono) 13 else 21
+        }
+    }
+
+    /**
+     * Whether a frame, whose first [length] bytes are in [frame], carries a Xing, Info or VBRI tag
+     * instead of audio. Mp3Extractor skips such a frame.
+     */
+    fun isInfoFrame(header: Int, frame: ByteArray, offset: Int, length: Int): Boolean {
+        if (layer(header) != LAYER_III) return false
+        val xingOffset = xingOffset(header)
+        if (xingOffset + 4 <= length) {
+            val tag = readInt(frame, offset + xingOffset)
+            if (tag == XING || tag == INFO) return true
+        }
+        return VBRI_OFFSET + 4 <= length && readInt(frame, offset + VBRI_OFFSET) == VBRI
+    }
+
+    /**
+     * The size of the ID3v2 tag whose 10 byte header starts at [offset], footer included, or -1
+     * if there is no tag there.
+     */
+    fun id3TagSize(bytes: ByteArray, offset: Int): Long {
+        val isId3 = bytes[offset] == 'I'.toByte() &&
+                bytes[offset + 1] == 'D'.toByte() &&
+                bytes[offset + 2] == '3'.toByte()
+        if (!isId3) return -1
+        // The size is syncsafe: 7 bits per byte. A footer repeats the 10 header bytes.
+        var size = ID3_HEADER_BYTES.toLong()
+        var tagSize = 0L
+        for (i in 6..9) tagSize = (tagSize shl 7) or (bytes[offset + i].toLong() and 0x7F)
+        size += tagSize
+        if (bytes[offset + 5].toInt() and 0x10 != 0) size += ID3_HEADER_BYTES
+        return size
+    }
+
+    fun readInt(bytes: ByteArray, offset: Int): Int =
+        (bytes[offset].toInt() and 0xFF shl 24) or
+                (bytes[offset + 1].toInt() and 0xFF shl 16) or
+                (bytes[offset + 2].toInt() and 0xFF shl 8) or
+                (bytes[offset + 3].toInt() and 0xFF)
+}
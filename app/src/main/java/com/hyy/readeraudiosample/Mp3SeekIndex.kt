@@ -0,0 +1,306 @@
+package com.hyy.readeraudiosample
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * Where in an MP3 file each point in time is: the byte offset and timestamp of one frame about
+ * every [Builder.intervalUs], up to [durationUs].
+ *
+ * Our TTS chapters are VBR without a usable Xing header, so the only seeker ExoPlayer can derive
+ * from the file itself assumes a constant bitrate and lands seconds away from the target. With
+ * an index a seek becomes a single read starting at the frame just before the target.
+ *
+ * Timestamps are counted the way Mp3Extractor counts them when it plays the file from the start:
+ * samples of the audio frames before, over the sample rate, with a Xing, Info or VBRI frame not
+ * counted as audio. Has no Android dependencies.
+ */
+class Mp3SeekIndex(
+    private val timesUs: LongArray,
+    private val positions: LongArray,
+    val durationUs: Long,
+    //最后一个完整帧结束的位置，之后是 ID3v1 之类的尾部数据
+    val dataEndPosition: Long
+) {
+
+    init {
+        require(timesUs.isNotEmpty() && timesUs.size == positions.size) {
+            "${timesUs.size} times for ${positions.size} positions"
+        }
+    }
+
+    val size: Int get() = timesUs.size
+
+    fun timeUsAt(entry: Int): Long = timesUs[entry]
+
+    fun positionAt(entry: Int): Long = positions[entry]
+
+    /**
+     * The last entry at or before [timeUs], the first entry for anything earlier.
+     */
+    fun entryFor(timeUs: Long): Int {
+        var low = 0
+        var high = timesUs.size - 1
+        while (low < high) {
+            val middle = (low + high + 1) ushr 1
+            if (timesUs[middle] <= timeUs) low = middle else high = middle - 1
+        }
+        return low
+    }
+
+    /**
+     * The entry that starts at byte [position], or -1 if none does.
+     */
+    fun entryAt(position: Long): Int {
+        val entry = positions.binarySearch(position)
+        return if (entry >= 0) entry else -1
+    }
+
+    /**
+     * Serializes the index: a short header, then the entries delta-encoded as ints, 8 bytes per
+     * entry. An hour of audio at one entry per second is under 30 KB.
+     */
+    fun toByteArray(): ByteArray {
+        val bytes = ByteArrayOutputStream(HEADER_BYTES + size * ENTRY_BYTES)
+        DataOutputStream(bytes).use { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(VERSION)
+            out.writeLong(durationUs)
+            out.writeLong(dataEndPosition)
+            out.writeInt(size)
+            var time = 0L
+            var position = 0L
+            for (i in 0 until size) {
+                out.writeInt((timesUs[i] - time).toInt())
+                out.writeInt((positions[i] - position).toInt())
+                time = timesUs[i]
+                position = positions[i]
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    override fun toString(): String =
+        "Mp3SeekIndex(entries=$size, durationUs=$durationUs, dataEnd=$dataEndPosition)"
+
+    /**
+     * Builds an index from the bytes of a file, fed in order from the first one, in chunks of any
+     * size. Parsing is a small state machine over the frame headers; frame payloads are skipped
+     * without being looked at, so feeding costs next to nothing next to the read itself.
+     */
+    class Builder(val intervalUs: Long = DEFAULT_INTERVAL_US) {
+
+        private var timesUs = LongArray(INITIAL_CAPACITY)
+        private var positions = LongArray(INITIAL_CAPACITY)
+        private var size = 0
+
+        private var state = STATE_ID3
+        //文件中下一个字节的位置
+        private var position = 0L
+        //还要跳过的字节数，也就是当前帧剩下的部分
+        private var skipRemaining = 0L
+
+        //ID3 头和第一帧的开头先收集在这里
+        private val scratch = ByteArray(FIRST_FRAME_PEEK_BYTES)
+        private var scratchLength = 0
+
+        //同步时最近读到的 4 个字节
+        private var window = 0
+        private var windowLength = 0
+
+        //第一帧的头，后面的帧版本、层和采样率都必须一样
+        private var firstHeader = 0
+        private var header = 0
+        private var headerPosition = 0L
+        private var frameSize = 0
+        private var samplesPerFrame = 0
+        private var sampleRate = 0
+
+        private var samples = 0L
+        private var nextEntryUs = 0L
+        private var dataEndPosition = 0L
+
+        /**
+         * Feeds the next [length] bytes of the file.
+         */
+        fun feed(data: ByteArray, offset: Int, length: Int) {
+            var i = offset
+            val end = offset + length
+            while (i < end) {
+                if (skipRemaining > 0) {
+                    val skipped = minOf(skipRemaining, (end - i).toLong()).toInt()
+                    skipRemaining -= skipped
+                    position += skipped
+                    i += skipped
+                } else {
+                    consume(data[i].toInt() and 0xFF)
+                    i++
+                }
+            }
+        }
+
+        /**
+         * The index of everything fed so far, or null if no audio frame was found. Only valid once
+         * the whole file went through [feed].
+         */
+        fun build(): Mp3SeekIndex? {
+            if (size == 0) return null
+            return Mp3SeekIndex(
+                timesUs.copyOf(size),
+                positions.copyOf(size),
+                timeUs(samples),
+                dataEndPosition
+            )
+        }
+
+        private fun consume(byte: Int) {
+            when (state) {
+                STATE_ID3 -> {
+                    scratch[scratchLength++] = byte.toByte()
+                    position++
+                    if (scratchLength == Mp3Header.ID3_HEADER_BYTES) onId3Header()
+                }
+                STATE_SYNC -> {
+                    position++
+                    window = (window shl 8) or byte
+                    if (++windowLength >= 4 && Mp3Header.isValid(window)) onHeader(window, position - 4)
+                }
+                STATE_FIRST_FRAME -> {
+                    scratch[scratchLength++] = byte.toByte()
+                    position++
+                    if (scratchLength == minOf(FIRST_FRAME_PEEK_BYTES, frameSize)) onFirstFrame()
+                }
+            }
+        }
+
+        private fun onId3Header() {
+            val tagSize = Mp3Header.id3TagSize(scratch, 0)
+            if (tagSize >= 0) {
+                skipRemaining = tagSize - Mp3Header.ID3_HEADER_BYTES
+                state = STATE_SYNC
+                return
+            }
+            // No tag: the bytes collected so far are already part of the audio.
+            state = STATE_SYNC
+            // Copied, since the first frame may be found in them and reuse the scratch.
+            val collected = scratch.copyOf(scratchLength)
+            position -= collected.size
+            scratchLength = 0
+            for (byte in collected) {
+                if (skipRemaining > 0) {
+                    skipRemaining--
+                    position++
+                } else {
+                    consume(byte.toInt() and 0xFF)
+                }
+            }
+        }
+
+        private fun onHeader(header: Int, headerPosition: Long) {
+            val mask = Mp3Header.CONSTANT_HEADER_MASK
+            if (firstHeader != 0 && header and mask != firstHeader and mask) return
+            this.header = header
+            this.headerPosition = headerPosition
+            frameSize = Mp3Header.frameSize(header)
+            samplesPerFrame = Mp3Header.samplesPerFrame(header)
+            sampleRate = Mp3Header.sampleRate(header)
+            windowLength = 0
+            if (firstHeader == 0) {
+                firstHeader = header
+                // Look into the first frame, which may be a Xing, Info or VBRI frame.
+                writeInt(scratch, 0, header)
+                scratchLength = 4
+                state = STATE_FIRST_FRAME
+                if (frameSize <= 4) onFirstFrame()
+            } else {
+                onAudioFrame()
+                skipRemaining = frameSize - 4L
+            }
+        }
+
+        private fun onFirstFrame() {
+            state = STATE_SYNC
+            if (!Mp3Header.isInfoFrame(header, scratch, 0, scratchLength)) onAudioFrame()
+            skipRemaining = frameSize.toLong() - scratchLength
+            scratchLength = 0
+        }
+
+        private fun onAudioFrame() {
+            val timeUs = timeUs(samples)
+            if (size == 0 || timeUs >= nextEntryUs) {
+                if (size == timesUs.size) {
+                    timesUs = timesUs.copyOf(size * 2)
+                    positions = positions.copyOf(size * 2)
+                }
+                timesUs[size] = timeUs
+                positions[size] = headerPosition
+                size++
+                // On a fixed grid, so entries don't drift apart by a frame each.
+                while (nextEntryUs <= timeUs) nextEntryUs += intervalUs
+            }
+            samples += samplesPerFrame
+            dataEndPosition = headerPosition + frameSize
+        }
+
+        private fun timeUs(samples: Long): Long =
+            if (sampleRate == 0) 0 else samples * MICROS_PER_SECOND / sampleRate
+
+        private companion object {
+            const val STATE_ID3 = 0
+            const val STATE_SYNC = 1
+            const val STATE_FIRST_FRAME = 2
+
+            const val INITIAL_CAPACITY = 256
+            // Far enough into a frame to see a VBRI tag, which comes after every Xing offset.
+            const val FIRST_FRAME_PEEK_BYTES = 40
+        }
+    }
+
+    companion object {
+        const val DEFAULT_INTERVAL_US = 1_000_000L
+
+        private const val MAGIC = 0x4D534931 // "MSI1"
+        private const val VERSION = 1
+        private const val HEADER_BYTES = 28
+        private const val ENTRY_BYTES = 8
+        private const val MICROS_PER_SECOND = 1_000_000L
+
+        /**
+         * Reads back an index written by [toByteArray], or null if [bytes] are not one, for
+         * example from an older version.
+         */
+        fun fromByteArray(bytes: ByteArray): Mp3SeekIndex? =
+            try {
+                DataInputStream(ByteArrayInputStream(bytes)).use { input ->
+                    if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+                    val durationUs = input.readLong()
+                    val dataEndPosition = input.readLong()
+                    val size = input.readInt()
+                    if (size <= 0 || size > (bytes.size - HEADER_BYTES) / ENTRY_BYTES) return null
+                    val timesUs = LongArray(size)
+                    val positions = LongArray(size)
+                    var time = 0L
+                    var position = 0L
+                    for (i in 0 until size) {
+                        time += input.readInt()
+                        position += input.readInt()
+                        timesUs[i] = time
+                        positions[i] = position
+                    }
+                    Mp3SeekIndex(timesUs, positions, durationUs, dataEndPosition)
+                }
+            } catch (e: IOException) {
+                null
+            }
+
+        private fun writeInt(bytes: ByteArray, offset: Int, value: Int) {
+            bytes[offset] = (value ushr 24).toByte()
+            bytes[offset + 1] = (value ushr 16).toByte()
+            bytes[offset + 2] = (value ushr 8).toByte()
+            bytes[offset + 3] = value.toByte()
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hyy.readeraudiosample
+
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.Format
+import com.google.android.exoplayer2.extractor.Extractor
+import com.google.android.exoplayer2.extractor.ExtractorInput
+import com.google.android.exoplayer2.extractor.ExtractorOutput
+import com.google.android.exoplayer2.extractor.PositionHolder
+import com.google.android.exoplayer2.extractor.SeekMap
+import com.google.android.exoplayer2.extractor.SeekPoint
+import com.google.android.exoplayer2.extractor.TrackOutput
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor
+import com.google.android.exoplayer2.util.ParsableByteArray
+
+/**
+ * An [Mp3Extractor] that seeks through a [Mp3SeekIndex] instead of the seeker it derives from the
+ * file.
+ *
+ * The extractor still parses the frames, but the [SeekMap] it reports is replaced by the index.
+ * After a seek it times the first frame with its own seeker, which is off by as much as the
+ * constant bitrate guess is, so the sample timestamps that follow are shifted by the difference
+ * to the time the index gave for that frame.
+ */
+class Mp3SeekIndexExtractor(
+    private val index: Mp3SeekIndex,
+    private val delegate: Extractor = Mp3Extractor()
+) : Extractor, ExtractorOutput, SeekMap {
+
+    private lateinit var output: ExtractorOutput
+
+    //seek 之后第一个样本应有的时间，算出偏移后清掉
+    private var seekTimeUs = C.TIME_UNSET
+    private var timeOffsetUs = 0L
+
+    override fun sniff(input: ExtractorInput): Boolean = delegate.sniff(input)
+
+    override fun init(output: ExtractorOutput) {
+        this.output = output
+        delegate.init(this)
+    }
+
+    override fun read(input: ExtractorInput, seekPosition: PositionHolder): Int =
+        delegate.read(input, seekPosition)
+
+    override fun seek(position: Long, timeUs: Long) {
+        delegate.seek(position, timeUs)
+        // The player asks for the time it wants, but reads from the seek point's frame, which
+        // starts at or before it.
+        val entry = index.entryAt(position)
+        seekTimeUs = if (entry != -1) index.timeUsAt(entry) else timeUs
+        timeOffsetUs = 0
+    }
+
+    override fun release() = delegate.release()
+
+    override fun track(id: Int, type: Int): TrackOutput = IndexedTrackOutput(output.track(id, type))
+
+    override fun endTracks() = output.endTracks()
+
+    override fun seekMap(seekMap: SeekMap) = output.seekMap(this)
+
+    override fun isSeekable(): Boolean = true
+
+    override fun getDurationUs(): Long = index.durationUs
+
+    override fun getSeekPoints(timeUs: Long): SeekMap.SeekPoints {
+        val entry = index.entryFor(timeUs)
+        val first = SeekPoint(index.timeUsAt(entry), index.positionAt(entry))
+        if (first.timeUs >= timeUs || entry == index.size - 1) return SeekMap.SeekPoints(first)
+        return SeekMap.SeekPoints(first, SeekPoint(index.timeUsAt(entry + 1), index.positionAt(entry + 1)))
+    }
+
+    private inner class IndexedTrackOutput(private val track: TrackOutput) : TrackOutput {
+
+        override fun format(format: Format) = track.format(format)
+
+        override fun sampleData(input: ExtractorInput, length: Int, allowEndOfInput: Boolean): Int =
+            track.sampleData(input, length, allowEndOfInput)
+
+        override fun sampleData(data: ParsableByteArray, length: Int) = track.sampleData(data, length)
+
+        override fun sampleMetadata(
+            timeUs: Long,
+            flags: Int,
+            size: Int,
+            offset: Int,
+            cryptoData: TrackOutput.CryptoData?
+        ) {
+            if (seekTimeUs != C.TIME_UNSET) {
+                // The index entries are frame starts, so this is the frame seeked to.
+                timeOffsetUs = seekTimeUs - timeUs
+                seekTimeUs = C.TIME_UNSET
+            }
+            track.sampleMetadata(timeUs + timeOffsetUs, flags, size, offset, cryptoData)
+        }
+    }
+}
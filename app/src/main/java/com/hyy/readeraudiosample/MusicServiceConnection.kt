@@ -29,6 +29,11 @@ import android.support.v4.media.session.PlaybackStateCompat
 import android.util.Log
 import androidx.lifecycle.MutableLiveData
 import androidx.media.MediaBrowserServiceCompat
+import com.hyy.readeraudiosample.model.ChapterAudioItem
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import java.io.File
 
 /**
  * Class that manages a connection to a [MediaBrowserServiceCompat] instance, typically a
@@ -60,11 +65,16 @@ class MusicServiceConnection(context: Context, serviceComponent: ComponentName)
 
     val rootMediaId: String get() = mediaBrowser.root
 
-    //播放状态回调
-    val playbackState = MutableLiveData<PlaybackStateCompat>()
-        .apply { postValue(EMPTY_PLAYBACK_STATE) }
-    val nowPlaying = MutableLiveData<MediaMetadataCompat>()
-        .apply { postValue(NOTHING_PLAYING) }
+    //播放状态和正在播放的元数据，相同的状态不会重复发送
+    private val _playerState = MutableStateFlow(PlayerState(EMPTY_PLAYBACK_STATE, NOTHING_PLAYING))
+    val playerState: StateFlow<PlayerState> get() = _playerState
+
+    /**
+     * [playerState] for a consumer that wants at most one update every [minIntervalMs]. Bursts,
+     * such as the state changes around a seek, collapse into the latest state.
+     */
+    fun playerState(minIntervalMs: Long): Flow<PlayerState> =
+        _playerState.throttleLatest(minIntervalMs)
 
     val transportControls: MediaControllerCompat.TransportControls
         get() = mediaController.transportControls
@@ -84,6 +94,75 @@ class MusicServiceConnection(context: Context, serviceComponent: ComponentName)
         mediaBrowser.sendCustomAction(action, bundle, null)
     }
 
+    /**
+     * Sends a custom action and reports what the service answered: the result bundle on success,
+     * null if the service rejected the action.
+     */
+    fun setCustomAction(action: String, bundle: Bundle?, resultCallback: (Bundle?) -> Unit) {
+        mediaBrowser.sendCustomAction(action, bundle, object : MediaBrowserCompat.CustomActionCallback() {
+            override fun onResult(action: String?, extras: Bundle?, resultData: Bundle?) {
+                resultCallback(resultData ?: Bundle.EMPTY)
+            }
+
+            override fun onError(action: String?, extras: Bundle?, data: Bundle?) {
+                Log.w(TAG, "setCustomAction: $action failed")
+                resultCallback(null)
+            }
+        })
+    }
+
+    /**
+     * Adds [chapters] to the book at [index] (or at the end), paging them across as many
+     * transactions as needed; see [ChapterListTransfer]. [onComplete] gets the number of chapters
+     * the service actually added and whether every page went through.
+     */
+    fun addChapters(
+        chapters: List<ChapterAudioItem>,
+        index: Int = -1,
+        onComplete: (added: Int, success: Boolean) -> Unit
+    ): ChapterListTransfer =
+        ChapterListTransfer(chapters, index, { bundle, callback ->
+            setCustomAction(ACTION_ADD_MEDIA_ITEM, bundle, callback)
+        }, onComplete).apply { start() }
+
+    /**
+     * Replaces the service's book with the [ChapterCatalog] at [file]. [onComplete] gets the
+     * number of chapters in the book, or null if the service couldn't open it.
+     */
+    fun openCatalog(file: File, onComplete: (Int?) -> Unit) {
+        setCustomAction(ACTION_OPEN_CATALOG, Bundle().apply {
+            putString(EXTRA_CATALOG_PATH, file.absolutePath)
+        }) { result -> onComplete(result?.getInt(EXTRA_QUEUE_SIZE)) }
+    }
+
+    /**
+     * Jumps to [fraction] of the whole book, 0 being its start and 1 its end. [onResult] gets the
+     * chapter index it landed in, or null if the service couldn't seek.
+     */
+    fun seekInBook(fraction: Float, onResult: (Int?) -> Unit = {}) {
+        setCustomAction(ACTION_SEEK_IN_BOOK, Bundle().apply {
+            putFloat(EXTRA_BOOK_FRACTION, fraction)
+        }) { result -> onResult(result?.getInt(EXTRA_QUEUE_INDEX)) }
+    }
+
+    /**
+     * Fetches the service's playback quality histograms, by name (see [PlaybackQoe]); null if
+     * the service couldn't answer.
+     */
+    fun requestQoeMetrics(onResult: (Map<String, Histogram>?) -> Unit) {
+        setCustomAction(ACTION_QOE_METRICS, null) { result ->
+            onResult(result?.let { PlaybackQoe.histograms(it) })
+        }
+    }
+
+    /**
+     * Fetches how the player buffers: burst and sleep lengths, radio-on share and memory, under
+     * the keys in [SpeechLoadControl]; null if the service couldn't answer.
+     */
+    fun requestBufferMetrics(onResult: (Bundle?) -> Unit) {
+        setCustomAction(ACTION_BUFFER_METRICS, null, onResult)
+    }
+
     private lateinit var mediaController: MediaControllerCompat
 
     fun subscribe(parentId: String, callback: MediaBrowserCompat.SubscriptionCallback) {
@@ -150,12 +229,13 @@ class MusicServiceConnection(context: Context, serviceComponent: ComponentName)
     private inner class MediaControllerCallback : MediaControllerCompat.Callback() {
 
         override fun onPlaybackStateChanged(state: PlaybackStateCompat?) {
-            Log.d(TAG, "onPlaybackStateChanged: $state")
-            state?.run {
-                state.playbackSpeed
-            }
+            EventTrace.record(
+                EventRing.SESSION_STATE,
+                positionMs = state?.position ?: 0,
+                arg = (state?.state ?: PlaybackStateCompat.STATE_NONE).toLong()
+            )
             //播放器状态更改
-            playbackState.postValue(state ?: EMPTY_PLAYBACK_STATE)
+            _playerState.value = PlayerState(state ?: EMPTY_PLAYBACK_STATE, _playerState.value.metadata)
         }
 
         override fun onMetadataChanged(metadata: MediaMetadataCompat?) {
@@ -164,14 +244,15 @@ class MusicServiceConnection(context: Context, serviceComponent: ComponentName)
             // for media ID is null so we assume that if this value is null we are not playing
             // anything.
             metadata?.run {
-                Log.d(TAG, "onMetadataChanged: metadata.id-->${id}")
-                Log.d(TAG, "onMetadataChanged: metadata.duration-->${duration}")
-                Log.d(TAG, "onMetadataChanged: metadata.title-->${title}")
-                Log.d(TAG, "onMetadataChanged: metadata.albumArtUri-->${albumArtUri}")
-                Log.d(TAG, "onMetadataChanged: metadata.displaySubtitle-->${displaySubtitle}")
+                EventTrace.record(
+                    EventRing.SESSION_METADATA,
+                    positionMs = duration,
+                    arg = id.hashCode().toLong()
+                )
             }
 
-            nowPlaying.postValue(
+            _playerState.value = PlayerState(
+                _playerState.value.playbackState,
                 if (metadata?.id == null) {
                     NOTHING_PLAYING
                 } else {
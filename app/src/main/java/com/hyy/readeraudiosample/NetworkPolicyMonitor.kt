@@ -0,0 +1,79 @@
+package com.hyy.readeraudiosample
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.util.Log
+
+/**
+ * Picks the [BurstBuffer.Policy] for the current network: [BurstBuffer.UNMETERED],
+ * [BurstBuffer.METERED] or [BurstBuffer.OFFLINE], and hands it to [onPolicy] whenever that
+ * changes, from [start] on. Apart from the first call from [start], [onPolicy] is called on the
+ * system's connectivity thread.
+ */
+class NetworkPolicyMonitor(
+    context: Context,
+    private val onPolicy: (BurstBuffer.Policy) -> Unit
+) {
+
+    private val connectivityManager =
+        context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+
+    @Volatile
+    var policy: BurstBuffer.Policy = currentPolicy()
+        private set
+
+    private val callback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) = update()
+
+        override fun onCapabilitiesChanged(network: Network, capabilities: NetworkCapabilities) = update()
+
+        override fun onLost(network: Network) = update()
+    }
+
+    private var started = false
+
+    @Synchronized
+    fun start() {
+        if (started) return
+        started = true
+        val request = NetworkRequest.Builder()
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build()
+        connectivityManager.registerNetworkCallback(request, callback)
+        policy = currentPolicy()
+        onPolicy(policy)
+    }
+
+    @Synchronized
+    fun stop() {
+        if (!started) return
+        started = false
+        connectivityManager.unregisterNetworkCallback(callback)
+    }
+
+    @Synchronized
+    private fun update() {
+        val policy = currentPolicy()
+        if (policy === this.policy) return
+        Log.d(TAG, "update: ${this.policy} -> $policy")
+        this.policy = policy
+        onPolicy(policy)
+    }
+
+    private fun currentPolicy(): BurstBuffer.Policy {
+        @Suppress("DEPRECATION")
+        val info = connectivityManager.activeNetworkInfo
+        return when {
+            info == null || !info.isConnected -> BurstBuffer.OFFLINE
+            connectivityManager.isActiveNetworkMetered -> BurstBuffer.METERED
+            else -> BurstBuffer.UNMETERED
+        }
+    }
+
+    companion object {
+        const val TAG = "NetworkPolicyMonitor"
+    }
+}
@@ -0,0 +1,105 @@
+package com.hyy.readeraudiosample
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.support.v4.media.session.PlaybackStateCompat
+import android.view.Choreographer
+import androidx.lifecycle.LiveData
+import kotlin.math.ceil
+
+/**
+ * The current playback position, extrapolated from the last [PlaybackStateCompat] with
+ * [PlaybackProgress.extrapolate].
+ *
+ * It only ticks while the session is playing *and* someone observes it with a started lifecycle,
+ * so a paused player or a backgrounded activity costs no wakeups at all. Ticks land on display
+ * frames ([Granularity.FRAME]) or just after the position crosses a whole second
+ * ([Granularity.SECOND]), whichever the observer needs. Must be used on the main thread.
+ *
+ * Every value is the same [PlaybackProgress], updated in place, so the values allocate nothing;
+ * only that part of a tick is checked by a test, not the scheduling here.
+ * In [Granularity.SECOND] observers only hear about it when the displayed second changes.
+ */
+class PlaybackPositionLiveData(
+    granularity: Granularity = Granularity.SECOND
+) : LiveData<PlaybackProgress>() {
+
+    enum class Granularity {
+        /** Every display frame, for smoothly moving progress. */
+        FRAME,
+
+        /** Once per second of media time, for mm:ss labels and second-based seek bars. */
+        SECOND
+    }
+
+    var granularity: Granularity = granularity
+        set(value) {
+            field = value
+            reschedule()
+        }
+
+    private var playbackState: PlaybackStateCompat = EMPTY_PLAYBACK_STATE
+
+    private val progress = PlaybackProgress()
+
+    private val handler = Handler(Looper.getMainLooper())
+    private val secondTick = Runnable { tick() }
+    private val frameTick = Choreographer.FrameCallback { tick() }
+
+    /**
+     * Feeds a new session state: publishes the position it implies and starts or stops ticking.
+     */
+    fun setPlaybackState(state: PlaybackStateCompat) {
+        playbackState = state
+        publish()
+        reschedule()
+    }
+
+    override fun onActive() {
+        publish()
+        reschedule()
+    }
+
+    override fun onInactive() {
+        cancelTick()
+    }
+
+    private fun tick() {
+        publish()
+        reschedule()
+    }
+
+    private fun publish() {
+        val secondChanged = progress.update(currentPosition())
+        if (secondChanged || granularity == Granularity.FRAME || value == null) value = progress
+    }
+
+    private fun currentPosition(): Long =
+        PlaybackProgress.extrapolate(
+            playbackState.position,
+            playbackState.lastPositionUpdateTime,
+            playbackState.playbackSpeed,
+            playbackState.state == PlaybackStateCompat.STATE_PLAYING,
+            SystemClock.elapsedRealtime()
+        )
+
+    private fun reschedule() {
+        cancelTick()
+        if (!hasActiveObservers() || playbackState.state != PlaybackStateCompat.STATE_PLAYING) return
+        when (granularity) {
+            Granularity.FRAME -> Choreographer.getInstance().postFrameCallback(frameTick)
+            Granularity.SECOND -> {
+                val speed = playbackState.playbackSpeed.takeIf { it > 0f } ?: 1f
+                val untilNextSecond = 1000 - progress.positionMs % 1000
+                // Media time runs [speed] times faster than the wall clock.
+                handler.postDelayed(secondTick, ceil(untilNextSecond / speed).toLong().coerceAtLeast(1))
+            }
+        }
+    }
+
+    private fun cancelTick() {
+        handler.removeCallbacks(secondTick)
+        Choreographer.getInstance().removeFrameCallback(frameTick)
+    }
+}
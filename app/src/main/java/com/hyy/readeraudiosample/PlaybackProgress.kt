@@ -0,0 +1,101 @@
+package com.hyy.readeraudiosample
+
+/**
+ * The playback position as the progress UI needs it: milliseconds, whole seconds for the seek
+ * bar and an mm:ss label, all kept in primitives and one reused [CharArray].
+ *
+ * A single instance is updated in place on every tick, and the label is only rewritten when the
+ * displayed second changes, so updating it allocates nothing. Has no Android dependencies, so
+ * this part of a tick can be exercised on a plain JVM.
+ */
+class PlaybackProgress {
+
+    var positionMs = 0L
+        private set
+
+    //整数秒，进度条和文字都按秒显示；位置未知时为 -1
+    var second = UNKNOWN_SECOND
+        private set
+
+    /**
+     * The mm:ss label of [second]; only the first [textLength] chars are valid.
+     */
+    val text = CharArray(MAX_TEXT_LENGTH)
+
+    var textLength = 0
+        private set
+
+    init {
+        textLength = formatMss(second, text)
+    }
+
+    /**
+     * Moves to [positionMs].
+     *
+     * @return whether the displayed second, and so [text], changed.
+     */
+    fun update(positionMs: Long): Boolean {
+        this.positionMs = positionMs
+        val second = secondOf(positionMs)
+        if (second == this.second) return false
+        this.second = second
+        textLength = formatMss(second, text)
+        return true
+    }
+
+    companion object {
+        const val UNKNOWN_SECOND = -1
+
+        // Enough for Int.MAX_VALUE seconds: 8 digits of minutes, ':' and 2 digits of seconds.
+        private const val MAX_TEXT_LENGTH = 11
+
+        /**
+         * Where a player that reported [position] at [lastPositionUpdateTime] is at [nowMs] when
+         * it plays at [speed]. A paused player stays where it was.
+         */
+        fun extrapolate(
+            position: Long,
+            lastPositionUpdateTime: Long,
+            speed: Float,
+            isPlaying: Boolean,
+            nowMs: Long
+        ): Long =
+            if (isPlaying) {
+                position + ((nowMs - lastPositionUpdateTime) * speed).toLong()
+            } else {
+                position
+            }
+
+        fun secondOf(positionMs: Long): Int =
+            if (positionMs < 0) UNKNOWN_SECOND else (positionMs / 1000).toInt()
+
+        /**
+         * Writes [second] as "m:ss", or "--:--" when unknown, into [out].
+         *
+         * @return the number of chars written.
+         */
+        fun formatMss(second: Int, out: CharArray): Int {
+            if (second < 0) {
+                "--:--".toCharArray(out)
+                return 5
+            }
+            var minutes = second / 60
+            val seconds = second % 60
+            var digits = 1
+            var scale = 1
+            while (minutes / scale >= 10) {
+                scale *= 10
+                digits++
+            }
+            for (i in 0 until digits) {
+                out[i] = '0' + minutes / scale
+                minutes %= scale
+                scale /= 10
+            }
+            out[digits] = ':'
+            out[digits + 1] = '0' + seconds / 10
+            out[digits + 2] = '0' + seconds % 10
+            return digits + 3
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.hyy.readeraudiosample
+
+import android.os.Bundle
+import android.support.v4.media.MediaMetadataCompat
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.Format
+import com.google.android.exoplayer2.Player
+import com.google.android.exoplayer2.Timeline
+import com.google.android.exoplayer2.analytics.AnalyticsListener
+import com.google.android.exoplayer2.analytics.AnalyticsListener.EventTime
+import com.google.android.exoplayer2.source.MediaSourceEventListener.LoadEventInfo
+import com.google.android.exoplayer2.source.MediaSourceEventListener.MediaLoadData
+
+/**
+ * Quality of experience of playback, recorded from ExoPlayer's analytics callbacks, so cache and
+ * prefetch changes can be compared with numbers rather than impressions.
+ *
+ * Per chapter it tracks the time played, stalls, seeks, the bytes loaded (from the network or the
+ * cache) and the bitrate. When playback leaves a chapter, that chapter is folded into histograms
+ * across chapters; [CHAPTER_HISTORY] finished chapters are also kept for diagnostics. Only the
+ * chapters in the player's timeline are tracked, so ones that were loaded but never played are
+ * dropped along with their window. Timestamps
+ * are the player's [EventTime.realtimeMs], so [onPrepareRequested] takes
+ * `SystemClock.elapsedRealtime()`.
+ *
+ * Must be used on the player's application thread only, like the player itself.
+ */
+class PlaybackQoe : AnalyticsListener {
+
+    class ChapterQoe(val id: String) {
+        var playedMs = 0L
+        var stallCount = 0
+        var stallMs = 0L
+        var seekCount = 0
+        var bytesLoaded = 0L
+        //码率，未知时为 Format.NO_VALUE
+        var bitrate = Format.NO_VALUE
+
+        /**
+         * Bytes the played time took at [bitrate], or -1 when the bitrate is unknown.
+         */
+        val bytesPlayed: Long
+            get() = if (bitrate == Format.NO_VALUE) -1 else playedMs * bitrate / 8 / 1000
+
+        override fun toString(): String =
+            "$id: played=${playedMs}ms, stalls=$stallCount/${stallMs}ms, seeks=$seekCount, " +
+                    "loaded=${bytesLoaded}B, played≈${bytesPlayed}B, bitrate=$bitrate"
+    }
+
+    //从请求播放到第一次真正出声
+    val timeToFirstAudioMs = Histogram(LATENCY_BOUNDS_MS)
+    //每次卡顿的时长，不含起播和 seek 带来的缓冲
+    val stallMs = Histogram(LATENCY_BOUNDS_MS)
+    val seekToReadyMs = Histogram(LATENCY_BOUNDS_MS)
+    //以下按章节统计：卡顿时长占播放时长的千分比、加载字节占播放字节的百分比、码率
+    val rebufferPermille = Histogram(PERMILLE_BOUNDS)
+    val loadedToPlayedPercent = Histogram(PERCENT_BOUNDS)
+    val bitrateKbps = Histogram(BITRATE_BOUNDS_KBPS)
+
+    private val window = Timeline.Window()
+    private val chapters = HashMap<String, ChapterQoe>()
+    private val history = object : LinkedHashMap<String, ChapterQoe>() {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ChapterQoe>) =
+            size > CHAPTER_HISTORY
+    }
+    private var current: ChapterQoe? = null
+
+    private var playbackState = Player.STATE_IDLE
+    private var playWhenReady = false
+    private var prepareRequestedMs = C.TIME_UNSET
+    private var playingSinceMs = C.TIME_UNSET
+    private var stallStartedMs = C.TIME_UNSET
+    private var seekStartedMs = C.TIME_UNSET
+
+    /**
+     * Finished chapters, oldest first.
+     */
+    val recentChapters: Collection<ChapterQoe> get() = history.values
+
+    /**
+     * Starts the time-to-first-audio clock: a chapter was asked for at [nowMs].
+     */
+    fun onPrepareRequested(nowMs: Long) {
+        prepareRequestedMs = nowMs
+    }
+
+    override fun onPlayerStateChanged(eventTime: EventTime, playWhenReady: Boolean, playbackState: Int) {
+        val now = eventTime.realtimeMs
+        when (playbackState) {
+            Player.STATE_READY -> {
+                if (seekStartedMs != C.TIME_UNSET) {
+                    seekToReadyMs.record(now - seekStartedMs)
+                    seekStartedMs = C.TIME_UNSET
+                }
+                endStall(now)
+            }
+            Player.STATE_BUFFERING -> {
+                // Running dry while playing is a stall; buffering to start or after a seek isn't.
+                if (this.playbackState == Player.STATE_READY && this.playWhenReady &&
+                    seekStartedMs == C.TIME_UNSET
+                ) {
+                    stallStartedMs = now
+                }
+            }
+            else -> {
+                endStall(now)
+                seekStartedMs = C.TIME_UNSET
+            }
+        }
+        this.playbackState = playbackState
+        this.playWhenReady = playWhenReady
+    }
+
+    override fun onIsPlayingChanged(eventTime: EventTime, isPlaying: Boolean) {
+        val now = eventTime.realtimeMs
+        if (isPlaying) {
+            if (prepareRequestedMs != C.TIME_UNSET) {
+                timeToFirstAudioMs.record(now - prepareRequestedMs)
+                prepareRequestedMs = C.TIME_UNSET
+            }
+            current = chapterAt(eventTime)
+            playingSinceMs = now
+        } else {
+            addPlayedTime(now)
+        }
+    }
+
+    override fun onSeekStarted(eventTime: EventTime) {
+        seekStartedMs = eventTime.realtimeMs
+        // The buffering a seek causes is its own latency, not a stall.
+        stallStartedMs = C.TIME_UNSET
+        current?.let { it.seekCount++ }
+    }
+
+    override fun onTimelineChanged(eventTime: EventTime, reason: Int) {
+        if (chapters.isEmpty()) return
+        val timeline = eventTime.timeline
+        val ids = HashSet<String>()
+        for (i in 0 until timeline.windowCount) {
+            (timeline.getWindow(i, window).tag as? MediaMetadataCompat)?.id?.let { ids += it }
+        }
+        // The chapter playing stays current until playback leaves it, even if its window went.
+        current?.let { ids += it.id }
+        chapters.keys.retainAll(ids)
+    }
+
+    override fun onPositionDiscontinuity(eventTime: EventTime, reason: Int) {
+        val chapter = chapterAt(eventTime)
+        if (chapter === current) return
+        val now = eventTime.realtimeMs
+        addPlayedTime(now)
+        current?.let { finish(it) }
+        current = chapter
+        if (playingSinceMs != C.TIME_UNSET) playingSinceMs = now
+    }
+
+    override fun onLoadCompleted(
+        eventTime: EventTime,
+        loadEventInfo: LoadEventInfo,
+        mediaLoadData: MediaLoadData
+    ) {
+        val chapter = chapterAt(eventTime) ?: return
+        chapter.bytesLoaded += loadEventInfo.bytesLoaded
+        // A progressive load that ran from the first byte to the end read the whole file, which
+        // gives the average bitrate even when the format doesn't declare one, as with our MP3s.
+        if (chapter.bitrate == Format.NO_VALUE && loadEventInfo.dataSpec.absoluteStreamPosition == 0L) {
+            val durationMs = windowDurationMs(eventTime)
+            if (durationMs > 0) chapter.bitrate = (loadEventInfo.bytesLoaded * 8000 / durationMs).toInt()
+        }
+    }
+
+    override fun onLoadCanceled(
+        eventTime: EventTime,
+        loadEventInfo: LoadEventInfo,
+        mediaLoadData: MediaLoadData
+    ) {
+        chapterAt(eventTime)?.let { it.bytesLoaded += loadEventInfo.bytesLoaded }
+    }
+
+    override fun onDecoderInputFormatChanged(eventTime: EventTime, trackType: Int, format: Format) {
+        if (trackType == C.TRACK_TYPE_AUDIO && format.bitrate != Format.NO_VALUE) {
+            chapterAt(eventTime)?.bitrate = format.bitrate
+        }
+    }
+
+    /**
+     * Folds the chapter playing now into the histograms, e.g. before they are read or the player
+     * is released. If it goes on playing, the rest of it is recorded from [nowMs] as a chapter of
+     * its own.
+     */
+    fun flush(nowMs: Long) {
+        val playing = playingSinceMs != C.TIME_UNSET
+        addPlayedTime(nowMs)
+        val chapter = current ?: return
+        finish(chapter)
+        current = ChapterQoe(chapter.id).also {
+            it.bitrate = chapter.bitrate
+            chapters[it.id] = it
+        }
+        if (playing) playingSinceMs = nowMs
+    }
+
+    /**
+     * The histograms, in a form [histograms] reads back on the other side of the binder.
+     */
+    fun toBundle(): Bundle = Bundle().apply {
+        put(TIME_TO_FIRST_AUDIO, timeToFirstAudioMs)
+        put(STALL, stallMs)
+        put(SEEK_TO_READY, seekToReadyMs)
+        put(REBUFFER_PERMILLE, rebufferPermille)
+        put(LOADED_TO_PLAYED_PERCENT, loadedToPlayedPercent)
+        put(BITRATE_KBPS, bitrateKbps)
+    }
+
+    override fun toString(): String = buildString {
+        append("timeToFirstAudioMs: ").append(timeToFirstAudioMs).append('\n')
+        append("stallMs: ").append(stallMs).append('\n')
+        append("seekToReadyMs: ").append(seekToReadyMs).append('\n')
+        append("rebufferPermille: ").append(rebufferPermille).append('\n')
+        append("loadedToPlayedPercent: ").append(loadedToPlayedPercent).append('\n')
+        append("bitrateKbps: ").append(bitrateKbps)
+    }
+
+    private fun endStall(nowMs: Long) {
+        if (stallStartedMs == C.TIME_UNSET) return
+        val durationMs = nowMs - stallStartedMs
+        stallStartedMs = C.TIME_UNSET
+        stallMs.record(durationMs)
+        current?.let {
+            it.stallCount++
+            it.stallMs += durationMs
+        }
+    }
+
+    private fun addPlayedTime(nowMs: Long) {
+        if (playingSinceMs == C.TIME_UNSET) return
+        current?.let { it.playedMs += nowMs - playingSinceMs }
+        playingSinceMs = C.TIME_UNSET
+    }
+
+    private fun finish(chapter: ChapterQoe) {
+        chapters.remove(chapter.id)
+        if (chapter.playedMs <= 0) return
+        rebufferPermille.record(chapter.stallMs * 1000 / chapter.playedMs)
+        if (chapter.bitrate != Format.NO_VALUE) bitrateKbps.record(chapter.bitrate / 1000L)
+        val bytesPlayed = chapter.bytesPlayed
+        if (bytesPlayed > 0) loadedToPlayedPercent.record(chapter.bytesLoaded * 100 / bytesPlayed)
+        history.remove(chapter.id)
+        history[chapter.id] = chapter
+    }
+
+    /**
+     * The chapter the window of [eventTime] plays, going by the timeline tag like the queue does.
+     */
+    private fun chapterAt(eventTime: EventTime): ChapterQoe? {
+        val timeline = eventTime.timeline
+        if (eventTime.windowIndex >= timeline.windowCount) return null
+        val id = (timeline.getWindow(eventTime.windowIndex, window).tag as? MediaMetadataCompat)?.id
+            ?: return null
+        return chapters.getOrPut(id) { ChapterQoe(id) }
+    }
+
+    private fun windowDurationMs(eventTime: EventTime): Long {
+        val timeline = eventTime.timeline
+        if (eventTime.windowIndex >= timeline.windowCount) return C.TIME_UNSET
+        return timeline.getWindow(eventTime.windowIndex, window).durationMs
+    }
+
+    companion object {
+        const val TIME_TO_FIRST_AUDIO = "time_to_first_audio_ms"
+        const val STALL = "stall_ms"
+        const val SEEK_TO_READY = "seek_to_ready_ms"
+        const val REBUFFER_PERMILLE = "rebuffer_permille"
+        const val LOADED_TO_PLAYED_PERCENT = "loaded_to_played_percent"
+        const val BITRATE_KBPS = "bitrate_kbps"
+
+        const val CHAPTER_HISTORY = 16
+
+        // 25 ms to about 25 s.
+        private val LATENCY_BOUNDS_MS = Histogram.exponentialBounds(25, 2, 11)
+        private val PERMILLE_BOUNDS = longArrayOf(0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000)
+        private val PERCENT_BOUNDS = longArrayOf(50, 80, 100, 120, 150, 200, 300, 500, 1000)
+        private val BITRATE_BOUNDS_KBPS = longArrayOf(16, 24, 32, 48, 64, 96, 128, 192, 256, 320)
+
+        private fun Bundle.put(name: String, histogram: Histogram) {
+            putLongArray("$name.bounds", histogram.bounds)
+            putLongArray("$name.counts", histogram.counts)
+            putLong("$name.sum", histogram.sum)
+            putLong("$name.max", histogram.max)
+        }
+
+        /**
+         * The histograms in a bundle made by [toBundle], by name.
+         */
+        fun histograms(bundle: Bundle): Map<String, Histogram> {
+            val names = listOf(
+                TIME_TO_FIRST_AUDIO, STALL, SEEK_TO_READY,
+                REBUFFER_PERMILLE, LOADED_TO_PLAYED_PERCENT, BITRATE_KBPS
+            )
+            val histograms = LinkedHashMap<String, Histogram>()
+            for (name in names) {
+                val bounds = bundle.getLongArray("$name.bounds") ?: continue
+                val counts = bundle.getLongArray("$name.counts") ?: continue
+                histograms[name] = Histogram.of(
+                    bounds, counts, bundle.getLong("$name.sum"), bundle.getLong("$name.max")
+                )
+            }
+            return histograms
+        }
+    }
+}
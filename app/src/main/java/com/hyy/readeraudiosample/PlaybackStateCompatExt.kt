@@ -19,6 +19,7 @@ package com.example.android.uamp.media.extensions
 import android.os.SystemClock
 import android.support.v4.media.MediaMetadataCompat
 import android.support.v4.media.session.PlaybackStateCompat
+import com.hyy.readeraudiosample.PlaybackProgress
 
 /**
  * Useful extension methods for [PlaybackStateCompat].
@@ -70,9 +71,10 @@ inline val PlaybackStateCompat.stateName
  * state and speed.
  */
 inline val PlaybackStateCompat.currentPlayBackPosition: Long
-    get() = if (state == PlaybackStateCompat.STATE_PLAYING) {
-        val timeDelta = SystemClock.elapsedRealtime() - lastPositionUpdateTime
-        (position + (timeDelta * playbackSpeed)).toLong()
-    } else {
-        position
-    }
+    get() = PlaybackProgress.extrapolate(
+        position,
+        lastPositionUpdateTime,
+        playbackSpeed,
+        state == PlaybackStateCompat.STATE_PLAYING,
+        SystemClock.elapsedRealtime()
+    )
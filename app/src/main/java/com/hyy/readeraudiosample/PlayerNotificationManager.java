@@ -27,7 +27,9 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.v4.media.session.MediaSessionCompat;
+import android.text.TextUtils;
 import android.widget.RemoteViews;
 
 import androidx.annotation.DrawableRes;
@@ -140,6 +142,8 @@ public class PlayerNotificationManager {
 
     private static final int MSG_START_OR_UPDATE_NOTIFICATION = 0;
     private static final int MSG_UPDATE_NOTIFICATION_BITMAP = 1;
+    // A rate-limited update that only moves the chronometer; content updates don't wait for it.
+    private static final int MSG_UPDATE_PROGRESS = 2;
 
     @Documented
     @Retention(RetentionPolicy.SOURCE)
@@ -159,6 +163,62 @@ public class PlayerNotificationManager {
 
     private static final long MAX_POSITION_FOR_SEEK_TO_PREVIOUS = 3000;
 
+    /** Minimum time between two updates that would only move the chronometer. */
+    private static final long MIN_PROGRESS_UPDATE_INTERVAL_MS = 1000;
+    /** Chronometer bases closer than this are the same to the eye. */
+    private static final long CHRONOMETER_TOLERANCE_MS = 500;
+
+    /**
+     * What the notification currently shows. An update that would show the same is not posted:
+     * every post is an IPC to system_server that carries the whole notification, bitmap included.
+     */
+    private static final class DisplayedState {
+        @Nullable private final CharSequence title;
+        @Nullable private final CharSequence text;
+        @Nullable private final Bitmap largeIcon;
+        private final boolean playing;
+        private final boolean ongoing;
+        @Nullable private final List<NotificationCompat.Action> actions;
+        private final boolean showChronometer;
+        private final long chronometerBase;
+
+        private DisplayedState(
+                @Nullable CharSequence title,
+                @Nullable CharSequence text,
+                @Nullable Bitmap largeIcon,
+                boolean playing,
+                boolean ongoing,
+                @Nullable List<NotificationCompat.Action> actions,
+                boolean showChronometer,
+                long chronometerBase) {
+            this.title = title;
+            this.text = text;
+            this.largeIcon = largeIcon;
+            this.playing = playing;
+            this.ongoing = ongoing;
+            this.actions = actions;
+            this.showChronometer = showChronometer;
+            this.chronometerBase = chronometerBase;
+        }
+
+        /** Whether everything but the chronometer position is the same. */
+        private boolean hasSameContent(DisplayedState other) {
+            return TextUtils.equals(title, other.title)
+                    && TextUtils.equals(text, other.text)
+                    // Bitmaps are compared by identity: the adapter hands out cached instances.
+                    && largeIcon == other.largeIcon
+                    && playing == other.playing
+                    && ongoing == other.ongoing
+                    && Util.areEqual(actions, other.actions)
+                    && showChronometer == other.showChronometer;
+        }
+
+        private boolean hasSameProgress(DisplayedState other) {
+            return !showChronometer
+                    || Math.abs(chronometerBase - other.chronometerBase) < CHRONOMETER_TOLERANCE_MS;
+        }
+    }
+
     private static int instanceIdCounter;
 
     private final Context context;
@@ -166,7 +226,8 @@ public class PlayerNotificationManager {
     private final int notificationId;
     private final MediaDescriptionAdapter mediaDescriptionAdapter;
     @Nullable private final CustomActionReceiver customActionReceiver;
-    private final Handler mainHandler;
+    // Runs on the application looper of the player; the main looper until a player is set.
+    private volatile Handler handler;
     private final NotificationManagerCompat notificationManager;
     private final IntentFilter intentFilter;
     private final Player.EventListener playerListener;
@@ -200,6 +261,10 @@ public class PlayerNotificationManager {
     private int visibility;
     @Priority private int priority;
     private boolean useChronometer;
+    @Nullable private DisplayedState displayedState;
+    private long lastPostTimeMs;
+    private int postedUpdateCount;
+    private int suppressedUpdateCount;
 
     /**
      * @deprecated Use {@link #createWithNotificationChannel(Context, String, int, int, int,
@@ -313,9 +378,7 @@ public class PlayerNotificationManager {
         window = new Timeline.Window();
         instanceId = instanceIdCounter++;
         //noinspection Convert2MethodRef
-        mainHandler =
-                Util.createHandler(
-                        Looper.getMainLooper(), msg -> PlayerNotificationManager.this.handleMessage(msg));
+        handler = createHandler(Looper.getMainLooper());
         notificationManager = NotificationManagerCompat.from(context);
         playerListener = new PlayerListener();
         notificationBroadcastReceiver = new NotificationBroadcastReceiver();
@@ -349,10 +412,17 @@ public class PlayerNotificationManager {
         intentFilter.addAction(ACTION_DISMISS);
     }
 
+    /**
+     * Sets the {@link Player}. The player may run on any looper, not only the main one; this
+     * method and the notification updates then run on the player's application looper, and
+     * notification actions are dispatched to the player there too.
+     *
+     * @param player The {@link Player}, or {@code null} to remove the current player.
+     */
     public final void setPlayer(@Nullable Player player) {
-        Assertions.checkState(Looper.myLooper() == Looper.getMainLooper());
+        Assertions.checkState(this.player == null || Looper.myLooper() == handler.getLooper());
         Assertions.checkArgument(
-                player == null || player.getApplicationLooper() == Looper.getMainLooper());
+                player == null || player.getApplicationLooper() == Looper.myLooper());
         if (this.player == player) {
             return;
         }
@@ -364,6 +434,10 @@ public class PlayerNotificationManager {
         }
         this.player = player;
         if (player != null) {
+            if (handler.getLooper() != player.getApplicationLooper()) {
+                handler.removeCallbacksAndMessages(null);
+                handler = createHandler(player.getApplicationLooper());
+            }
             player.addListener(playerListener);
             postStartOrUpdateNotification();
         }
@@ -411,20 +485,74 @@ public class PlayerNotificationManager {
         }
     }
 
+    /** Number of notification updates actually sent to the system. */
+    public int getPostedUpdateCount() {
+        return postedUpdateCount;
+    }
+
+    /** Number of notification updates skipped because nothing visible changed, or rate-limited. */
+    public int getSuppressedUpdateCount() {
+        return suppressedUpdateCount;
+    }
+
     private void startOrUpdateNotification(Player player, @Nullable Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || !hasMediaToShow(player)) {
+            builderActions = null;
+            stopNotification(/* dismissedByUser= */ false);
+            return;
+        }
+        // What the notification would show, read from the player and the adapter only, so an
+        // update that changes nothing visible returns before anything is built.
         boolean ongoing = getOngoing(player);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            builder = createNotification(player, builder, ongoing, bitmap);
+        if (bitmap == null) {
+            bitmap =
+                    mediaDescriptionAdapter.getCurrentLargeIcon(
+                            player, new BitmapCallback(++currentNotificationTag));
+        }
+        boolean showChronometer = shouldShowChronometer(player);
+        DisplayedState state =
+                new DisplayedState(
+                        mediaDescriptionAdapter.getCurrentContentTitle(player),
+                        mediaDescriptionAdapter.getCurrentContentText(player),
+                        bitmap,
+                        player.isPlaying(),
+                        ongoing,
+                        resolveActions(getActions(player)),
+                        showChronometer,
+                        showChronometer ? System.currentTimeMillis() - player.getContentPosition() : 0);
+        if (isNotificationStarted && displayedState != null && state.hasSameContent(displayedState)) {
+            if (state.hasSameProgress(displayedState)) {
+                suppressedUpdateCount++;
+                return;
+            }
+            // Only the chronometer moved (a seek): post it, but not more than once a second.
+            long sinceLastPostMs = SystemClock.elapsedRealtime() - lastPostTimeMs;
+            if (sinceLastPostMs < MIN_PROGRESS_UPDATE_INTERVAL_MS) {
+                suppressedUpdateCount++;
+                if (!handler.hasMessages(MSG_UPDATE_PROGRESS)) {
+                    handler.sendEmptyMessageDelayed(
+                            MSG_UPDATE_PROGRESS, MIN_PROGRESS_UPDATE_INTERVAL_MS - sinceLastPostMs);
+                }
+                return;
+            }
         }
+        // This post carries the latest progress as well.
+        handler.removeMessages(MSG_UPDATE_PROGRESS);
+        builder = createNotification(player, builder, ongoing, bitmap);
         if (builder == null) {
             stopNotification(/* dismissedByUser= */ false);
             return;
         }
         Notification notification = builder.build();
         notificationManager.notify(notificationId, notification);
+        displayedState = state;
+        lastPostTimeMs = SystemClock.elapsedRealtime();
+        postedUpdateCount++;
         if (!isNotificationStarted) {
             isNotificationStarted = true;
-            context.registerReceiver(notificationBroadcastReceiver, intentFilter);
+            // Actions reach the player on its own thread.
+            context.registerReceiver(
+                    notificationBroadcastReceiver, intentFilter, /* broadcastPermission= */ null, handler);
             if (notificationListener != null) {
                 notificationListener.onNotificationStarted(notificationId, notification);
             }
@@ -438,7 +566,9 @@ public class PlayerNotificationManager {
     private void stopNotification(boolean dismissedByUser) {
         if (isNotificationStarted) {
             isNotificationStarted = false;
-            mainHandler.removeMessages(MSG_START_OR_UPDATE_NOTIFICATION);
+            displayedState = null;
+            handler.removeMessages(MSG_START_OR_UPDATE_NOTIFICATION);
+            handler.removeMessages(MSG_UPDATE_PROGRESS);
             notificationManager.cancel(notificationId);
             context.unregisterReceiver(notificationBroadcastReceiver);
             if (notificationListener != null) {
@@ -456,24 +586,13 @@ public class PlayerNotificationManager {
             @Nullable NotificationCompat.Builder builder,
             boolean ongoing,
             @Nullable Bitmap largeIcon) {
-        if (player.getPlaybackState() == Player.STATE_IDLE
-                && (player.getCurrentTimeline().isEmpty() || playbackPreparer == null)) {
+        if (!hasMediaToShow(player)) {
             builderActions = null;
             return null;
         }
 
         List<String> actionNames = getActions(player);
-        ArrayList<NotificationCompat.Action> actions = new ArrayList<>(actionNames.size());
-        for (int i = 0; i < actionNames.size(); i++) {
-            String actionName = actionNames.get(i);
-            NotificationCompat.Action action =
-                    playbackActions.containsKey(actionName)
-                            ? playbackActions.get(actionName)
-                            : customActions.get(actionName);
-            if (action != null) {
-                actions.add(action);
-            }
-        }
+        ArrayList<NotificationCompat.Action> actions = resolveActions(actionNames);
 
         if (builder == null || !actions.equals(builderActions)) {
             builder = new NotificationCompat.Builder(context, channelId);
@@ -513,12 +632,7 @@ public class PlayerNotificationManager {
                 .setDefaults(defaults);
 
         // Changing "showWhen" causes notification flicker if SDK_INT < 21.
-        if (Util.SDK_INT >= 21
-                && useChronometer
-                && player.isPlaying()
-                && !player.isPlayingAd()
-                && !player.isCurrentWindowDynamic()
-                && player.getPlaybackParameters().speed == 1f) {
+        if (shouldShowChronometer(player)) {
             builder
                     .setWhen(System.currentTimeMillis() - player.getContentPosition())
                     .setShowWhen(true)
@@ -546,6 +660,26 @@ public class PlayerNotificationManager {
         return builder;
     }
 
+    private boolean hasMediaToShow(Player player) {
+        return player.getPlaybackState() != Player.STATE_IDLE
+                || (!player.getCurrentTimeline().isEmpty() && playbackPreparer != null);
+    }
+
+    private ArrayList<NotificationCompat.Action> resolveActions(List<String> actionNames) {
+        ArrayList<NotificationCompat.Action> actions = new ArrayList<>(actionNames.size());
+        for (int i = 0; i < actionNames.size(); i++) {
+            String actionName = actionNames.get(i);
+            NotificationCompat.Action action =
+                    playbackActions.containsKey(actionName)
+                            ? playbackActions.get(actionName)
+                            : customActions.get(actionName);
+            if (action != null) {
+                actions.add(action);
+            }
+        }
+        return actions;
+    }
+
     protected List<String> getActions(Player player) {
         boolean enablePrevious = false;
         boolean enableRewind = false;
@@ -679,6 +813,15 @@ public class PlayerNotificationManager {
         controlDispatcher.dispatchSeekTo(player, windowIndex, positionMs);
     }
 
+    private boolean shouldShowChronometer(Player player) {
+        return Util.SDK_INT >= 21
+                && useChronometer
+                && player.isPlaying()
+                && !player.isPlayingAd()
+                && !player.isCurrentWindowDynamic()
+                && player.getPlaybackParameters().speed == 1f;
+    }
+
     private boolean shouldShowPauseButton(Player player) {
         return player.getPlaybackState() != Player.STATE_ENDED
                 && player.getPlaybackState() != Player.STATE_IDLE
@@ -686,21 +829,27 @@ public class PlayerNotificationManager {
     }
 
     private void postStartOrUpdateNotification() {
-        if (!mainHandler.hasMessages(MSG_START_OR_UPDATE_NOTIFICATION)) {
-            mainHandler.sendEmptyMessage(MSG_START_OR_UPDATE_NOTIFICATION);
+        if (!handler.hasMessages(MSG_START_OR_UPDATE_NOTIFICATION)) {
+            handler.sendEmptyMessage(MSG_START_OR_UPDATE_NOTIFICATION);
         }
     }
 
     private void postUpdateNotificationBitmap(Bitmap bitmap, int notificationTag) {
-        mainHandler
+        handler
                 .obtainMessage(
                         MSG_UPDATE_NOTIFICATION_BITMAP, notificationTag, C.INDEX_UNSET /* ignored */, bitmap)
                 .sendToTarget();
     }
 
+    private Handler createHandler(Looper looper) {
+        //noinspection Convert2MethodRef
+        return Util.createHandler(looper, msg -> PlayerNotificationManager.this.handleMessage(msg));
+    }
+
     private boolean handleMessage(Message msg) {
         switch (msg.what) {
             case MSG_START_OR_UPDATE_NOTIFICATION:
+            case MSG_UPDATE_PROGRESS:
                 if (player != null) {
                     startOrUpdateNotification(player, /* bitmap= */ null);
                 }
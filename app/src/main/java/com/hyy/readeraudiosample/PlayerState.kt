@@ -0,0 +1,45 @@
+package com.hyy.readeraudiosample
+
+import android.support.v4.media.MediaMetadataCompat
+import android.support.v4.media.session.PlaybackStateCompat
+
+/**
+ * What the UI renders of the session: its [playbackState] and the [metadata] of what is playing.
+ *
+ * Neither framework class implements equals, so two states are compared here by the fields the
+ * UI actually shows. [MusicServiceConnection.playerState] relies on this to drop repeated states.
+ */
+class PlayerState(
+    val playbackState: PlaybackStateCompat,
+    val metadata: MediaMetadataCompat
+) {
+
+    fun hasSameMetadata(other: PlayerState): Boolean =
+        metadata === other.metadata ||
+                (metadata.id == other.metadata.id &&
+                        metadata.duration == other.metadata.duration &&
+                        metadata.title == other.metadata.title &&
+                        metadata.displaySubtitle == other.metadata.displaySubtitle &&
+                        metadata.albumArtUri == other.metadata.albumArtUri)
+
+    fun hasSamePlaybackState(other: PlayerState): Boolean {
+        val a = playbackState
+        val b = other.playbackState
+        return a === b ||
+                (a.state == b.state &&
+                        a.position == b.position &&
+                        a.lastPositionUpdateTime == b.lastPositionUpdateTime &&
+                        a.playbackSpeed == b.playbackSpeed &&
+                        a.actions == b.actions &&
+                        a.errorCode == b.errorCode)
+    }
+
+    override fun equals(other: Any?): Boolean =
+        other is PlayerState && hasSamePlaybackState(other) && hasSameMetadata(other)
+
+    override fun hashCode(): Int = 31 * playbackState.state + (metadata.id?.hashCode() ?: 0)
+
+    override fun toString(): String =
+        "PlayerState(state=${playbackState.state}, position=${playbackState.position}, " +
+                "mediaId=${metadata.id})"
+}
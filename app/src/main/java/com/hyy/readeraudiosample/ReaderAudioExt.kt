@@ -46,7 +46,3 @@ fun MediaMetadataCompat.Builder.from(novel: ChapterAudioItem): MediaMetadataComp
     // Allow it to be used in the typical builder style.
     return this
 }
-
-val Long.toSeconds: Int
-    get() = Math.floor(this / 1E3).toInt()
-
@@ -5,7 +5,12 @@ import android.app.PendingIntent
 import android.content.Intent
 import android.net.Uri
 import android.os.Bundle
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
+import android.os.Process
 import android.os.ResultReceiver
+import android.os.SystemClock
 import android.support.v4.media.MediaBrowserCompat
 import android.support.v4.media.MediaDescriptionCompat
 import android.support.v4.media.MediaMetadataCompat
@@ -21,10 +26,16 @@ import com.google.android.exoplayer2.*
 import com.google.android.exoplayer2.audio.AudioAttributes
 import com.google.android.exoplayer2.ext.mediasession.MediaSessionConnector
 import com.google.android.exoplayer2.ext.mediasession.TimelineQueueNavigator
-import com.google.android.exoplayer2.source.ConcatenatingMediaSource
-import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory
+import com.google.android.exoplayer2.upstream.DataSource
 import com.hyy.readeraudiosample.model.ChapterAudioItem
+import java.io.File
+import java.io.FileDescriptor
+import java.io.IOException
+import java.io.PrintWriter
+import java.io.StringWriter
 import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 
 /**
  *Create by hyy on 2020/12/14
@@ -40,6 +51,45 @@ const val MEDIA_DESCRIPTION_EXTRAS_START_PLAYBACK_POSITION_MS = "playback_start_
 const val ACTION_PLAYBACK_SPEED = "action_playback_speed"
 const val ACTION_ADD_MEDIA_ITEM = "action_add_media_item"
 const val PLAYBACK_SPEED = "playback_speed"
+const val ACTION_REMOVE_MEDIA_ITEMS = "action_remove_media_items"
+const val ACTION_MOVE_MEDIA_ITEM = "action_move_media_item"
+//队列编辑的参数：起始位置（插入、删除、移动的源位置）和结束位置（删除的结尾、移动的目标位置）
+const val EXTRA_QUEUE_INDEX = "queue_index"
+const val EXTRA_QUEUE_TO_INDEX = "queue_to_index"
+//队列编辑结果：实际改动的章节数和编辑后的章节总数
+const val EXTRA_QUEUE_CHANGED_COUNT = "queue_changed_count"
+const val EXTRA_QUEUE_SIZE = "queue_size"
+//打开 app 写好的章节目录文件，只传文件路径
+const val ACTION_OPEN_CATALOG = "action_open_catalog"
+const val EXTRA_CATALOG_PATH = "catalog_path"
+const val ACTION_PREFETCH_MODE = "action_prefetch_mode"
+const val PREFETCH_MODE = "prefetch_mode"
+//测量播放/暂停命令从发出到播放器生效的延迟，可以同时给主线程加上人为的卡顿
+const val ACTION_MEASURE_COMMAND_LATENCY = "action_measure_command_latency"
+const val EXTRA_LATENCY_SAMPLES = "latency_samples"
+const val EXTRA_MAIN_THREAD_STALL_MS = "main_thread_stall_ms"
+const val EXTRA_LATENCY_P50_MS = "latency_p50_ms"
+const val EXTRA_LATENCY_P95_MS = "latency_p95_ms"
+const val EXTRA_LATENCY_MAX_MS = "latency_max_ms"
+//播放体验指标的直方图，见 PlaybackQoe.histograms()
+const val ACTION_QOE_METRICS = "action_qoe_metrics"
+//缓冲指标：每轮加载和休眠多久、加载开着的时间占比、占用内存，键见 SpeechLoadControl
+const val ACTION_BUFFER_METRICS = "action_buffer_metrics"
+//跳到整本书的某个位置：传毫秒数或者 0~1 的比例（二选一），返回跳到的章节和书的总时长
+const val ACTION_SEEK_IN_BOOK = "action_seek_in_book"
+const val EXTRA_BOOK_POSITION_MS = "book_position_ms"
+const val EXTRA_BOOK_FRACTION = "book_fraction"
+const val EXTRA_BOOK_DURATION_MS = "book_duration_ms"
+private const val USER_AGENT = "com.hyy.sample.audio"
+private const val PREFETCH_RETRY_MS = 5000L
+private const val PLAYBACK_THREAD_NAME = "ReaderAudioPlayback"
+private const val LATENCY_COMMAND_INTERVAL_MS = 500L
+private const val MAIN_THREAD_LOAD_PERIOD_MS = 100L
+private const val DUMP_TIMEOUT_MS = 1000L
+private const val DURATION_INVALIDATE_DELAY_MS = 500L
+// Chapters after the current one whose durations are probed, beyond the window.
+private const val DURATION_PROBE_AHEAD = 5
+private const val MAX_POSITION_FOR_SKIP_TO_PREVIOUS_MS = 3000L
 class ReaderAudioService : MediaBrowserServiceCompat() {
 
     companion object {
@@ -47,7 +97,12 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
     }
 
     private var lastWindowIndex: Int = -1//上一次播放章节所在播放列表中的位置
-    private var currentPlaylistItems: MutableList<MediaMetadataCompat> = mutableListOf()
+
+    //上次探测时长时的当前章节，换章后探测新的章节
+    private var durationProbeChapterIndex = C.INDEX_UNSET
+
+    //只在播放线程上使用
+    private val window = Timeline.Window()
 
     // The current player will either be an ExoPlayer (for local playback) or a CastPlayer (for
     // remote playback through a Cast device).
@@ -66,28 +121,141 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
 
     private val playerListener = PlayerEventListener()
 
-    private val mediaSource = ConcatenatingMediaSource()
+    /**
+     * The thread the player, the [MediaSessionConnector], the queue and the notification run on.
+     * With [BuildConfig.PLAYBACK_THREAD] it is a dedicated audio-priority thread, so jank on the
+     * main thread of the app can't hold back play, pause or a chapter change; otherwise it is the
+     * main thread, as before.
+     */
+    private val playbackHandler: Handler by lazy {
+        val looper = if (BuildConfig.PLAYBACK_THREAD) {
+            HandlerThread(PLAYBACK_THREAD_NAME, Process.THREAD_PRIORITY_AUDIO).apply { start() }.looper
+        } else {
+            Looper.getMainLooper()
+        }
+        Handler(looper)
+    }
+    private val mainHandler = Handler(Looper.getMainLooper())
 
     /**
-     * Configure ExoPlayer to handle audio focus for us.
+     * Every coroutine of the service runs here, so none outlives it: swiping the app away or the
+     * service being destroyed leaves no download or decode running.
      */
-    private val exoPlayer: ExoPlayer by lazy {
-        SimpleExoPlayer.Builder(this).build().apply {
-            setAudioAttributes(uAmpAudioAttributes, true)
-            setHandleAudioBecomingNoisy(true)
-            addListener(playerListener)
+    private val serviceScope: ServiceScope by lazy { ServiceScope(playbackHandler.looper) }
 
+    private val latencyProbe = CommandLatencyProbe()
+    private val qoe = PlaybackQoe()
+
+    // Kept so dump() and ACTION_BUFFER_METRICS can show how the player buffers.
+    private val loadControl = SpeechLoadControl()
+    //双播放器模式下第二个播放器的，两个播放器同时缓冲，不能共用
+    private val secondLoadControl by lazy { SpeechLoadControl() }
+
+    /**
+     * Moves both load controls to the buffer policy of the network at hand.
+     */
+    private val networkPolicyMonitor by lazy {
+        NetworkPolicyMonitor(this) { policy ->
+            loadControl.policy = policy
+            if (BuildConfig.STANDBY_PLAYER) secondLoadControl.policy = policy
         }
     }
+    //播放器最近一次报告的 playWhenReady，延迟测量据此决定下一条命令是播放还是暂停
+    @Volatile
+    private var playWhenReady = false
+
+
+    /**
+     * The player that is heard. Its events arrive on the playback thread, and it must only be used
+     * from there. With [BuildConfig.STANDBY_PLAYER] it changes at every chapter boundary, and only
+     * this one has [playerListener] and [qoe] attached.
+     */
+    private lateinit var exoPlayer: SimpleExoPlayer
+
+    /**
+     * With [BuildConfig.STANDBY_PLAYER], a second player holds the next chapter prepared and
+     * paused, so a chapter change is a swap instead of a prepare. It buffers while the other one
+     * plays, so it gets a load control of its own, [secondLoadControl].
+     */
+    private val standbyPlayers: StandbyPlayers<PlayerDeck>? by lazy {
+        if (!BuildConfig.STANDBY_PLAYER) return@lazy null
+        StandbyPlayers(
+            PlayerDeck(exoPlayer),
+            PlayerDeck(buildPlayer(secondLoadControl)),
+            { playlist.size },
+            ::onChapterStarted
+        )
+    }
+
+    /**
+     * Configure ExoPlayer to handle audio focus for us.
+     */
+    private fun buildPlayer(loadControl: LoadControl): SimpleExoPlayer =
+        SimpleExoPlayer.Builder(this)
+            .setLooper(playbackHandler.looper)
+            .setLoadControl(loadControl)
+            .build().apply {
+                setAudioAttributes(uAmpAudioAttributes, true)
+                setHandleAudioBecomingNoisy(true)
+            }
+
+    /**
+     * Chapters already heard are kept on disk, so replays and seek-backs skip the network.
+     */
+    private val chapterCache: ChapterCache by lazy {
+        ChapterCache.getInstance(this)
+    }
 
-    private val dataSourceFactory: DefaultDataSourceFactory by lazy {
-        DefaultDataSourceFactory(
+    private val dataSourceFactory: DataSource.Factory by lazy {
+        chapterCache.createDataSourceFactory(
             /* context= */ this,
-            "com.hyy.sample.audio", /* listener= */
-            null
+            USER_AGENT
+        )
+    }
+
+    /**
+     * Downloads the next chapters once the current one is close to its end, so chapter
+     * transitions don't wait on the network.
+     */
+    private val prefetcher: ChapterPrefetcher by lazy {
+        ChapterPrefetcher(
+            chapterCache,
+            chapterCache.createPrefetchDataSourceFactory(this, USER_AGENT),
+            serviceScope
+        )
+    }
+
+    /**
+     * Reads the headers of queued chapters for their exact duration, which the backend only
+     * gives in whole seconds.
+     */
+    private val durationProber: DurationProber by lazy {
+        DurationProber(
+            chapterCache,
+            chapterCache.createPrefetchDataSourceFactory(this, USER_AGENT),
+            serviceScope
         )
     }
 
+    //探测到的时长先攒着，一次性刷新给 session
+    private val invalidateQueue = Runnable {
+        mediaSessionConnector.invalidateMediaSessionQueue()
+        mediaSessionConnector.invalidateMediaSessionMetadata()
+    }
+
+    /**
+     * The whole book is known here, but only a few chapters around the current one are
+     * materialized in the player's media source.
+     */
+    private val playlist: ChapterPlaylist by lazy {
+        ChapterPlaylist(dataSourceFactory, ::createMetaDataList, { metadata ->
+            // Seeks in a chapter go through its seek index once one was built.
+            chapterCache.extractorsFactory(metadata.mediaUri.toString())
+        })
+    }
+
+    private val prefetchCheck = Runnable { checkPrefetch() }
+
     val novelModel by lazy {
         ChapterAudioItem(
             "Chapter One",
@@ -140,32 +308,108 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
 
 
     /**
-     * Load the supplied list of songs and the song to play into the current player.
+     * Load the window of chapters around the one to play into the current player.
      */
     private fun preparePlaylist(
-        metadataList: List<MediaMetadataCompat>,//播放元数据列表
-        itemToPlay: MediaMetadataCompat?,//即将要播放的Mediaitem 元数据
+        chapterIndex: Int,//即将要播放的章节在整本书中的位置
         playWhenReady: Boolean,//播放器准备耗资源后是否自动播放
         playbackStartPositionMs: Long//起始播放位置
     ) {
-        // Since the playlist was probably based on some ordering (such as tracks
-        // on an album), find which window index to play first so that the song the
-        // user actually wants to hear plays first.
-        val initialWindowIndex = if (itemToPlay == null) 0 else metadataList.indexOf(itemToPlay)
-//        if (currentPlaylistItems.isEmpty()) {
-//            currentPlaylistItems.clear()
-//            currentPlaylistItems.addAll(metadataList)
-//        }
+        val standbyPlayers = standbyPlayers
+        if (standbyPlayers != null) {
+            // Each player holds a single chapter; the window only keeps the book's bookkeeping.
+            playlist.resetWindow(chapterIndex)
+            standbyPlayers.play(chapterIndex, playbackStartPositionMs, playWhenReady)
+        } else {
+            currentPlayer.playWhenReady = playWhenReady
+            currentPlayer.stop(/* reset= */ true)
+            if (currentPlayer == exoPlayer) {
+                val initialWindowIndex = playlist.resetWindow(chapterIndex)
+                exoPlayer.prepare(playlist.mediaSource)
+                exoPlayer.seekTo(initialWindowIndex, playbackStartPositionMs)
+            }
+        }
+        probeDurations()
+    }
 
-        currentPlayer.playWhenReady = playWhenReady
-        currentPlayer.stop(/* reset= */ true)
-        if (currentPlayer == exoPlayer) {
-            currentPlaylistItems.forEach {
-                mediaSource.addMediaSource(it.toMediaSource(dataSourceFactory))
+    /**
+     * The [StandbyPlayers] started [chapterIndex] on [active]. When that is the other player,
+     * the session, the notification and the listeners move over to it.
+     */
+    private fun onChapterStarted(active: PlayerDeck, previous: PlayerDeck, chapterIndex: Int) {
+        if (active !== previous) {
+            previous.player.removeListener(playerListener)
+            previous.player.removeAnalyticsListener(qoe)
+            exoPlayer = active.player.apply {
+                addListener(playerListener)
+                addAnalyticsListener(qoe)
             }
-            exoPlayer.prepare(mediaSource)
-            exoPlayer.seekTo(initialWindowIndex, playbackStartPositionMs)
+            currentPlayer = exoPlayer
+            playWhenReady = exoPlayer.playWhenReady
+            // Both players share the one session and the one notification.
+            mediaSessionConnector.setPlayer(exoPlayer)
+            notificationManager.showNotificationForPlayer(exoPlayer)
+        }
+        playlist.slideTo(chapterIndex)
+        if (chapterIndex != durationProbeChapterIndex) probeDurations()
+        val isLastChapter = playlist.isLastChapter(chapterIndex)
+        EventTrace.record(EventRing.CHAPTER_CHANGED, chapterIndex, arg = if (isLastChapter) 1 else 0)
+        schedulePrefetchCheck()
+    }
+
+    /**
+     * After the queue changed, tells the [StandbyPlayers] where their chapters are now, so the
+     * standby player is reloaded only if it no longer holds the next chapter.
+     */
+    private fun syncStandbyPlayers() {
+        val standbyPlayers = standbyPlayers ?: return
+        standbyPlayers.onQueueChanged(
+            standbyPlayers.active.chapterIndex,
+            standbyPlayers.standby.chapterIndex
+        )
+    }
+
+    /**
+     * Probes the durations of the chapters the listener sees next: the current one, the
+     * [DURATION_PROBE_AHEAD] after it and the rest of the window. The rest of the book keeps the
+     * backend's durations in the [BookTimeline] until playback gets there, so this costs the same
+     * on a book of any size. Called again whenever the current chapter changes.
+     */
+    private fun probeDurations() {
+        val current = playlist.currentChapterIndex
+        durationProbeChapterIndex = current
+        if (current == C.INDEX_UNSET) {
+            durationProber.probe(emptyList(), ::onDurationProbed)
+            return
         }
+        val chapterIndices = LinkedHashSet<Int>()
+        for (chapterIndex in current until minOf(current + 1 + DURATION_PROBE_AHEAD, playlist.size)) {
+            chapterIndices += chapterIndex
+        }
+        for (chapterIndex in playlist.windowStart until playlist.windowStart + playlist.windowSize) {
+            chapterIndices += chapterIndex
+        }
+        val chapters = chapterIndices.map {
+            DurationProber.Chapter(playlist.idAt(it), playlist.sourceAt(it))
+        }
+        durationProber.probe(chapters, ::onDurationProbed)
+    }
+
+    /**
+     * Takes a probed duration into the book timeline and, when the chapter is materialized,
+     * into its queue item, which is where the session reads the duration from. The player
+     * isn't prepared again: once it reads the header it reports the same duration.
+     */
+    private fun onDurationProbed(id: String, durationMs: Long) {
+        val chapterIndex = playlist.indexOf(id)
+        if (chapterIndex == C.INDEX_UNSET) return
+        playlist.correctDuration(chapterIndex, durationMs)
+        val windowIndex = windowIndexOf(id)
+        if (windowIndex == C.INDEX_UNSET) return
+        val metadata = exoPlayer.currentTimeline.getWindow(windowIndex, window).tag as? MediaMetadataCompat
+        metadata?.description?.extras?.putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durationMs)
+        playbackHandler.removeCallbacks(invalidateQueue)
+        playbackHandler.postDelayed(invalidateQueue, DURATION_INVALIDATE_DELAY_MS)
     }
 
     val mySessionCallback = object  : MediaSessionCompat.Callback() {
@@ -197,6 +441,11 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
     override fun onCreate() {
         super.onCreate()
         Log.d(TAG, "onCreate: ")
+        networkPolicyMonitor.start()
+        exoPlayer = buildPlayer(loadControl).apply {
+            addListener(playerListener)
+            addAnalyticsListener(qoe)
+        }
         currentPlayer = exoPlayer
         // Build a PendingIntent that can be used to launch the UI.
         val sessionActivityPendingIntent =
@@ -237,23 +486,32 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
         notificationManager = UampNotificationManager(
             this,
             mediaSession.sessionToken,
-            PlayerNotificationListener()
+            PlayerNotificationListener(),
+            serviceScope
         )
-        // ExoPlayer will manage the MediaSession for us.
-        mediaSessionConnector = MediaSessionConnector(mediaSession)
-        mediaSessionConnector.setRewindIncrementMs(15000)
-//        mediaSessionConnector.invalidateMediaSessionPlaybackState()
-        mediaSessionConnector.setPlaybackPreparer(UampPlaybackPreparer())
-        //将元数据注入到UI层
-        mediaSessionConnector.setQueueNavigator(UampQueueNavigator(mediaSession))
-        mediaSessionConnector.setPlayer(currentPlayer)
-
-        notificationManager.showNotificationForPlayer(currentPlayer)
+        // The connector takes session callbacks on the thread it is created on, which has to be
+        // the player's, so it is set up there.
+        playbackHandler.post {
+            // ExoPlayer will manage the MediaSession for us.
+            mediaSessionConnector = MediaSessionConnector(mediaSession)
+            mediaSessionConnector.setRewindIncrementMs(15000)
+//            mediaSessionConnector.invalidateMediaSessionPlaybackState()
+            mediaSessionConnector.setPlaybackPreparer(UampPlaybackPreparer())
+            //将元数据注入到UI层
+            mediaSessionConnector.setQueueNavigator(UampQueueNavigator(mediaSession))
+            mediaSessionConnector.setPlayer(currentPlayer)
+
+            notificationManager.showNotificationForPlayer(currentPlayer)
+        }
     }
 
     override fun onTaskRemoved(rootIntent: Intent?) {
         super.onTaskRemoved(rootIntent)
-        currentPlayer.stop(true)
+        playbackHandler.post {
+            currentPlayer.stop(true)
+            standbyPlayers?.stop()
+            serviceScope.cancelWork()
+        }
     }
 
     override fun onGetRoot(
@@ -266,27 +524,215 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
     }
 
     override fun onCustomAction(action: String, extras: Bundle?, result: Result<Bundle>) {
-        super.onCustomAction(action, extras, result)
         Log.d(TAG, "onCustomAction: action-->${action}")
-        if (ACTION_PLAYBACK_SPEED == action) {
-            extras?.run {
-                val speed = getFloat(PLAYBACK_SPEED, 1f)
-                exoPlayer.setPlaybackParameters(PlaybackParameters(speed))
-            }
-        }
-        if (ACTION_ADD_MEDIA_ITEM == action) {
-            extras?.run {
-                val mediaItemList = getParcelableArrayList<ChapterAudioItem>(ACTION_ADD_MEDIA_ITEM)
-                Log.d(TAG, "onPrepareFromMediaId: mediaItemList size ->>${mediaItemList?.size}")
-                mediaItemList?.run {
-                    val metadataList = createMetaDataList(this)
-                    currentPlaylistItems.addAll(metadataList)
-                    metadataList.forEach {
-                        mediaSource.addMediaSource(it.toMediaSource(dataSourceFactory))
-                    }
+        if (action == ACTION_MEASURE_COMMAND_LATENCY) {
+            measureCommandLatency(extras, result)
+            return
+        }
+        // Queue edits answer once the player has the new timeline, so every action answers later.
+        result.detach()
+        if (Looper.myLooper() != playbackHandler.looper) {
+            // The player and the queue belong to the playback thread; answer from there.
+            playbackHandler.post { handleCustomAction(action, extras, result) }
+        } else {
+            handleCustomAction(action, extras, result)
+        }
+    }
+
+    private fun handleCustomAction(action: String, extras: Bundle?, result: Result<Bundle>) {
+        when (action) {
+            ACTION_PLAYBACK_SPEED -> {
+                extras?.run {
+                    val speed = getFloat(PLAYBACK_SPEED, 1f)
+                    exoPlayer.setPlaybackParameters(PlaybackParameters(speed))
+                    standbyPlayers?.standby?.player?.setPlaybackParameters(PlaybackParameters(speed))
+                }
+                result.sendResult(null)
+            }
+            ACTION_QOE_METRICS -> {
+                // Counts the chapter playing so far as well.
+                qoe.flush(SystemClock.elapsedRealtime())
+                Log.d(TAG, "onCustomAction: qoe\n$qoe")
+                result.sendResult(qoe.toBundle())
+            }
+            ACTION_BUFFER_METRICS -> result.sendResult(loadControl.toBundle())
+            ACTION_SEEK_IN_BOOK -> seekInBook(extras, result)
+            ACTION_PREFETCH_MODE -> {
+                extras?.getString(PREFETCH_MODE)?.let {
+                    prefetcher.mode = ChapterPrefetcher.Mode.valueOf(it)
+                    schedulePrefetchCheck()
+                }
+                result.sendResult(null)
+            }
+            ACTION_ADD_MEDIA_ITEM -> {
+                val mediaItemList = extras?.getParcelableArrayList<ChapterAudioItem>(ACTION_ADD_MEDIA_ITEM)
+                Log.d(TAG, "onCustomAction: mediaItemList size ->>${mediaItemList?.size}")
+                if (extras == null || mediaItemList == null) {
+                    result.sendError(null)
+                    return
+                }
+                val index = extras.getInt(EXTRA_QUEUE_INDEX, playlist.size).coerceIn(0, playlist.size)
+                editQueue(result) { insertAll(index, mediaItemList) }
+            }
+            ACTION_REMOVE_MEDIA_ITEMS -> {
+                val from = extras?.getInt(EXTRA_QUEUE_INDEX, -1) ?: -1
+                val to = extras?.getInt(EXTRA_QUEUE_TO_INDEX, from + 1) ?: -1
+                if (from < 0 || to > playlist.size || from > to) {
+                    result.sendError(null)
+                    return
+                }
+                editQueue(result) { removeRange(from, to); to - from }
+            }
+            ACTION_MOVE_MEDIA_ITEM -> {
+                val from = extras?.getInt(EXTRA_QUEUE_INDEX, -1) ?: -1
+                val to = extras?.getInt(EXTRA_QUEUE_TO_INDEX, -1) ?: -1
+                if (from !in 0 until playlist.size || to !in 0 until playlist.size) {
+                    result.sendError(null)
+                    return
+                }
+                editQueue(result) { move(from, to); 1 }
+            }
+            ACTION_OPEN_CATALOG -> {
+                val catalog = extras?.getString(EXTRA_CATALOG_PATH)?.let { openCatalog(File(it)) }
+                if (catalog == null) {
+                    result.sendError(null)
+                    return
                 }
-                mediaItemList
+                prefetcher.cancel()
+                playlist.open(catalog)
+                syncStandbyPlayers()
+                probeDurations()
+                result.sendResult(Bundle().apply { putInt(EXTRA_QUEUE_SIZE, playlist.size) })
             }
+            else -> super.onCustomAction(action, extras, result)
+        }
+    }
+
+    /**
+     * Toggles play/pause through the session, as a controller would, [EXTRA_LATENCY_SAMPLES]
+     * times, and answers with how long each command took to reach the player. With
+     * [EXTRA_MAIN_THREAD_STALL_MS] the main thread is kept busy for that long out of every
+     * [MAIN_THREAD_LOAD_PERIOD_MS] meanwhile, standing in for UI jank. Needs a chapter loaded.
+     */
+    private fun measureCommandLatency(extras: Bundle?, result: Result<Bundle>) {
+        result.detach()
+        val samples = extras?.getInt(EXTRA_LATENCY_SAMPLES, 20) ?: 20
+        val stallMs = (extras?.getLong(EXTRA_MAIN_THREAD_STALL_MS, 0L) ?: 0L)
+            .coerceIn(0L, MAIN_THREAD_LOAD_PERIOD_MS)
+        val controls = mediaSession.controller.transportControls
+        val load = object : Runnable {
+            override fun run() {
+                val end = SystemClock.uptimeMillis() + stallMs
+                while (SystemClock.uptimeMillis() < end) {
+                    // Busy on purpose.
+                }
+                mainHandler.postDelayed(this, MAIN_THREAD_LOAD_PERIOD_MS - stallMs)
+            }
+        }
+        var issued = 0
+        val command = object : Runnable {
+            override fun run() {
+                if (issued == samples) {
+                    mainHandler.removeCallbacks(load)
+                    Log.d(TAG, "measureCommandLatency: stall ${stallMs}ms, " +
+                            "playback thread ${BuildConfig.PLAYBACK_THREAD}, $latencyProbe")
+                    result.sendResult(Bundle().apply {
+                        putLong(EXTRA_LATENCY_P50_MS, latencyProbe.percentile(50))
+                        putLong(EXTRA_LATENCY_P95_MS, latencyProbe.percentile(95))
+                        putLong(EXTRA_LATENCY_MAX_MS, latencyProbe.percentile(100))
+                    })
+                    return
+                }
+                issued++
+                latencyProbe.onCommand(SystemClock.elapsedRealtime())
+                if (playWhenReady) controls.pause() else controls.play()
+                mainHandler.postDelayed(this, LATENCY_COMMAND_INTERVAL_MS)
+            }
+        }
+        latencyProbe.reset()
+        if (stallMs > 0) mainHandler.post(load)
+        mainHandler.post(command)
+    }
+
+    /**
+     * Jumps to a position in the whole book, given as [EXTRA_BOOK_POSITION_MS] or as
+     * [EXTRA_BOOK_FRACTION] of its duration. A chapter the player already has is seeked to in
+     * place; any other gets a fresh window around it, so the cost doesn't grow with the book.
+     */
+    private fun seekInBook(extras: Bundle?, result: Result<Bundle>) {
+        val timeline = playlist.bookTimeline
+        val positionMs = when {
+            extras == null || timeline.size == 0 -> -1L
+            extras.containsKey(EXTRA_BOOK_FRACTION) ->
+                (timeline.totalMs * extras.getFloat(EXTRA_BOOK_FRACTION).coerceIn(0f, 1f)).toLong()
+            else -> extras.getLong(EXTRA_BOOK_POSITION_MS, -1L)
+        }
+        if (positionMs < 0) {
+            result.sendError(null)
+            return
+        }
+        val chapterIndex = timeline.chapterAt(positionMs)
+        val offsetMs = timeline.offsetInChapter(chapterIndex, positionMs)
+        val windowIndex = windowIndexOf(playlist[chapterIndex].id)
+        if (windowIndex != C.INDEX_UNSET) {
+            exoPlayer.seekTo(windowIndex, offsetMs)
+        } else {
+            preparePlaylist(chapterIndex, exoPlayer.playWhenReady, offsetMs)
+        }
+        result.sendResult(Bundle().apply {
+            putInt(EXTRA_QUEUE_INDEX, chapterIndex)
+            putLong(EXTRA_BOOK_POSITION_MS, timeline.startOf(chapterIndex) + offsetMs)
+            putLong(EXTRA_BOOK_DURATION_MS, timeline.totalMs)
+        })
+    }
+
+    /**
+     * The window of the player's timeline that plays the chapter with [id], going by the tag like
+     * the queue does, or [C.INDEX_UNSET].
+     */
+    private fun windowIndexOf(id: String): Int {
+        val timeline = exoPlayer.currentTimeline
+        for (i in 0 until timeline.windowCount) {
+            if ((timeline.getWindow(i, window).tag as? MediaMetadataCompat)?.id == id) return i
+        }
+        return C.INDEX_UNSET
+    }
+
+    /**
+     * Maps the catalog at [file], which must live in this app's catalog folder.
+     */
+    private fun openCatalog(file: File): ChapterCatalog? {
+        val catalogDir = File(filesDir, ChapterCatalog.CATALOG_DIR_NAME).canonicalFile
+        if (file.canonicalFile.parentFile != catalogDir) {
+            Log.w(TAG, "openCatalog: refusing $file")
+            return null
+        }
+        return try {
+            ChapterCatalog.open(file)
+        } catch (e: IOException) {
+            Log.w(TAG, "openCatalog: failed to open $file", e)
+            null
+        }
+    }
+
+    /**
+     * Applies [edit] to the playlist as one batch and answers [result] once the player has the
+     * new timeline, with the number of chapters touched and the new queue size.
+     */
+    private fun editQueue(result: Result<Bundle>, edit: ChapterPlaylist.() -> Int) {
+        val startMs = SystemClock.elapsedRealtime()
+        var changed = 0
+        changed = playlist.edit(playbackHandler, Runnable {
+            Log.d(TAG, "editQueue: $changed chapters in ${SystemClock.elapsedRealtime() - startMs}ms")
+            result.sendResult(Bundle().apply {
+                putInt(EXTRA_QUEUE_CHANGED_COUNT, changed)
+                putInt(EXTRA_QUEUE_SIZE, playlist.size)
+            })
+        }, edit)
+        if (changed > 0) {
+            syncStandbyPlayers()
+            schedulePrefetchCheck()
+            probeDurations()
         }
     }
 
@@ -297,17 +743,11 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
         parentId: String,
         result: Result<MutableList<MediaBrowserCompat.MediaItem>>
     ) {
-        Log.d(TAG, "onLoadChildren: ")
         result.detach()
         // Assume for example that the music catalog is already loaded/cached.
 
         val mediaItems = mutableListOf<MediaBrowserCompat.MediaItem>()
 
-        Log.d(TAG, "onLoadChildren: mediaMetaData-->${mediaMetadataCompat}")
-        Log.d(TAG, "onLoadChildren: mediaMetaData id-->${mediaMetadataCompat.id}")
-        Log.d(TAG, "onLoadChildren: mediaMetaData title-->${mediaMetadataCompat.title}")
-        Log.d(TAG, "onLoadChildren: mediaMetaData duration-->${mediaMetadataCompat.duration}")
-        Log.d(TAG, "onLoadChildren: mediaMetaData album-->${mediaMetadataCompat.album}")
         // Check if this is the root menu:
         if (MY_MEDIA_ROOT_ID == parentId) {
             // Build the MediaItem objects for the top level,
@@ -322,6 +762,7 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
             // Examine the passed parentMediaId to see which submenu we're at,
             // and put the children of that menu in the mediaItems list...
         }
+        EventTrace.record(EventRing.LOAD_CHILDREN, arg = mediaItems.size.toLong())
         result.sendResult(mediaItems)
     }
 
@@ -330,7 +771,13 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
      */
     private inner class PlayerEventListener : Player.EventListener {
         override fun onPlayerStateChanged(playWhenReady: Boolean, playbackState: Int) {
-            Log.d(TAG, "onPlayerStateChanged: state--> $playbackState")
+            recordEvent(EventRing.PLAYER_STATE, playbackState.toLong())
+            // With a standby player the chapter ends here, and the next one is already waiting.
+            if (playbackState == Player.STATE_ENDED && standbyPlayers?.advance() == true) return
+            if (playWhenReady != this@ReaderAudioService.playWhenReady) {
+                this@ReaderAudioService.playWhenReady = playWhenReady
+                latencyProbe.onEffect(SystemClock.elapsedRealtime())
+            }
             when (playbackState) {
                 Player.STATE_BUFFERING,
                 Player.STATE_READY -> {
@@ -357,24 +804,48 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
         //播放器player切换上一首或下一首的监听
         override fun onPositionDiscontinuity(reason: Int) {
             super.onPositionDiscontinuity(reason)
+            recordEvent(EventRing.DISCONTINUITY, reason.toLong())
             //THIS METHOD GETS CALLED FOR EVERY NEW SOURCE THAT IS PLAYED
             val latestWindowIndex = exoPlayer.currentWindowIndex
-            Log.d(TAG, "onPositionDiscontinuity: lastWindowIndex before--->$lastWindowIndex")
             if (latestWindowIndex != lastWindowIndex) {
                 // item selected in playlist has changed, handle here
                 lastWindowIndex = latestWindowIndex
                 // ...
             }
-            if (latestWindowIndex == (currentPlaylistItems.size-1)) {
-                Log.d(TAG, "onPositionDiscontinuity: preloadNextMediaItem")
-                preloadNextMediaItem(latestWindowIndex)
+            // The timeline's tag says which chapter is playing, whatever the window offset is.
+            val chapterIndex = playlist.indexOf((exoPlayer.currentTag as? MediaMetadataCompat)?.id)
+            if (chapterIndex != C.INDEX_UNSET) {
+                playlist.slideTo(chapterIndex)
+                if (chapterIndex != durationProbeChapterIndex) probeDurations()
+                val isLastChapter = playlist.isLastChapter(chapterIndex)
+                EventTrace.record(EventRing.CHAPTER_CHANGED, chapterIndex, arg = if (isLastChapter) 1 else 0)
+            }
+            schedulePrefetchCheck()
+        }
+
+        override fun onTimelineChanged(timeline: Timeline, reason: Int) {
+            // Once a chapter's header is read the player knows its real duration.
+            for (i in 0 until timeline.windowCount) {
+                timeline.getWindow(i, window)
+                if (window.durationMs == C.TIME_UNSET) continue
+                val chapterIndex = playlist.indexOf((window.tag as? MediaMetadataCompat)?.id)
+                if (chapterIndex != C.INDEX_UNSET) playlist.correctDuration(chapterIndex, window.durationMs)
             }
+        }
 
-            Log.d(TAG, "onPositionDiscontinuity: lastWindowIndex --->$lastWindowIndex")
-            Log.d(TAG, "onPositionDiscontinuity: latestWindowIndex --->$latestWindowIndex")
+        override fun onIsPlayingChanged(isPlaying: Boolean) {
+            recordEvent(EventRing.IS_PLAYING, if (isPlaying) 1 else 0)
+            schedulePrefetchCheck()
+        }
 
+        override fun onPlaybackParametersChanged(playbackParameters: PlaybackParameters) {
+            recordEvent(EventRing.PLAYBACK_PARAMETERS, (playbackParameters.speed * 100).toLong())
+            //倍速变化后剩余的播放时间也随之变化
+            schedulePrefetchCheck()
         }
+
         override fun onPlayerError(error: ExoPlaybackException) {
+            recordEvent(EventRing.PLAYER_ERROR, error.type.toLong())
             var message = R.string.generic_error;
             when (error.type) {
                 // If the data from MediaSource object could not be loaded the Exoplayer raises
@@ -401,36 +872,51 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
                     Log.e(TAG, "TYPE_REMOTE: " + error.message)
                 }
             }
-            Toast.makeText(
-                applicationContext,
-                message,
-                Toast.LENGTH_LONG
-            ).show()
+            mainHandler.post {
+                Toast.makeText(
+                    applicationContext,
+                    message,
+                    Toast.LENGTH_LONG
+                ).show()
+            }
         }
     }
 
-    private fun preloadNextMediaItem(latestWindowIndex: Int) {
-        when(latestWindowIndex) {
-            0 -> {
-                prepareNextMediaItem(TestDataFactory.mediaItem2())
-            }
-            1 -> {
-                prepareNextMediaItem(TestDataFactory.mediaItem3())
-            }
-            2 -> {
-                prepareNextMediaItem(TestDataFactory.mediaItem4())
-            }
+    private fun recordEvent(type: Int, arg: Long) {
+        EventTrace.record(type, exoPlayer.currentWindowIndex, exoPlayer.currentPosition, arg)
+    }
 
-        }
+    private fun schedulePrefetchCheck() {
+        playbackHandler.removeCallbacks(prefetchCheck)
+        playbackHandler.post(prefetchCheck)
     }
 
-    private fun prepareNextMediaItem(audioItem: ChapterAudioItem) {
-        audioItem.run {
-            val metaData = createMetaDataFromAudioItem(this)
-            currentPlaylistItems.add(metaData)
-            mediaSource.addMediaSource(metaData.toMediaSource(dataSourceFactory))
+    /**
+     * Starts prefetching once the time left in the current chapter, in wall-clock time at the
+     * current playback speed, drops below [ChapterPrefetcher.horizonMs]. Until then the check is
+     * re-armed for the moment the horizon will be crossed, so nothing polls while far from it.
+     *
+     * Heads of upcoming chapters ([ChapterPrefetcher.Mode.HEAD]) are cheap, so they are fetched as
+     * soon as playback runs.
+     */
+    private fun checkPrefetch() {
+        if (!exoPlayer.isPlaying) return
+        if (prefetcher.mode == ChapterPrefetcher.Mode.HEAD) {
+            prefetcher.prefetch(playlist.upcoming(prefetcher.targetCount))
+            return
+        }
+        val durationMs = exoPlayer.duration
+        if (durationMs == C.TIME_UNSET) {
+            playbackHandler.postDelayed(prefetchCheck, PREFETCH_RETRY_MS)
+            return
+        }
+        val speed = exoPlayer.playbackParameters.speed
+        val remainingMs = ((durationMs - exoPlayer.currentPosition) / speed).toLong()
+        if (remainingMs <= prefetcher.horizonMs) {
+            prefetcher.prefetch(playlist.upcoming(prefetcher.targetCount))
+        } else {
+            playbackHandler.postDelayed(prefetchCheck, remainingMs - prefetcher.horizonMs)
         }
-
     }
 
     /**
@@ -465,14 +951,85 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
 
     override fun onDestroy() {
         super.onDestroy()
-        mediaSession.run {
-            isActive = false
-            release()
+        mainHandler.removeCallbacksAndMessages(null)
+        networkPolicyMonitor.stop()
+        playbackHandler.post {
+            mediaSession.run {
+                isActive = false
+                release()
+            }
+
+            // Free ExoPlayer resources.
+            playbackHandler.removeCallbacks(prefetchCheck)
+            playbackHandler.removeCallbacks(invalidateQueue)
+            exoPlayer.removeListener(playerListener)
+            qoe.flush(SystemClock.elapsedRealtime())
+            Log.d(TAG, "onDestroy: qoe\n$qoe")
+            exoPlayer.release()
+            standbyPlayers?.standby?.player?.release()
+
+            prefetcher.release()
+            durationProber.release()
+            notificationManager.release()
+            serviceScope.close()
+            Log.d(TAG, "onDestroy: $chapterCache")
+            if (playbackHandler.looper != Looper.getMainLooper()) {
+                playbackHandler.looper.quitSafely()
+            }
+        }
+    }
+
+    /**
+     * A snapshot for `adb shell dumpsys activity service .ReaderAudioService`.
+     *
+     * The state is read on the playback thread, where it lives. If that thread doesn't answer
+     * within [DUMP_TIMEOUT_MS] it is reported as stuck, which is a finding in itself; the
+     * [EventTrace] ring can be read from any thread, so recent events are printed either way.
+     */
+    override fun dump(fd: FileDescriptor?, writer: PrintWriter, args: Array<out String>?) {
+        val state = StringWriter()
+        val done = CountDownLatch(1)
+        val posted = playbackHandler.post {
+            try {
+                dumpState(PrintWriter(state))
+            } finally {
+                done.countDown()
+            }
+        }
+        when {
+            !posted -> writer.println("playback thread has quit")
+            !done.await(DUMP_TIMEOUT_MS, TimeUnit.MILLISECONDS) ->
+                writer.println("playback thread did not answer within ${DUMP_TIMEOUT_MS}ms")
+            else -> writer.print(state)
         }
+        EventTrace.ring.dump(writer)
+    }
 
-        // Free ExoPlayer resources.
-        exoPlayer.removeListener(playerListener)
-        exoPlayer.release()
+    private fun dumpState(writer: PrintWriter) {
+        writer.println("ReaderAudioService(playbackThread=${BuildConfig.PLAYBACK_THREAD})")
+        writer.println(
+            "queue: size=${playlist.size}, window=${playlist.windowStart}+${playlist.windowSize}, " +
+                    "current=${playlist.currentChapterIndex}"
+        )
+        writer.println("book: ${playlist.bookTimeline}")
+        writer.println("standby: ${standbyPlayers ?: "off"}")
+        writer.println(
+            "player: state=${exoPlayer.playbackState}, playWhenReady=${exoPlayer.playWhenReady}, " +
+                    "position=${exoPlayer.currentPosition}, speed=${exoPlayer.playbackParameters.speed}"
+        )
+        writer.println("buffer: ${exoPlayer.totalBufferedDuration}ms, $loadControl")
+        if (BuildConfig.STANDBY_PLAYER) writer.println("second player buffer: $secondLoadControl")
+        writer.println("cache: $chapterCache, hitRate=${"%.2f".format(chapterCache.hitRate)}")
+        writer.println("prefetch: $prefetcher")
+        writer.println("durations: $durationProber")
+        writer.println("artwork: ${ArtworkCache.getInstance(this)}")
+        writer.println("notification: $notificationManager")
+        writer.println("commands: $latencyProbe")
+        writer.println("scope: $serviceScope")
+        writer.println("qoe:")
+        writer.println(qoe)
+        for (chapter in qoe.recentChapters) writer.println("  $chapter")
+        writer.flush()
     }
 
     private fun setupNotification() {
@@ -538,11 +1095,76 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
         startForeground(2020, builder.build())
     }
 
+    /**
+     * One of the two players of [standbyPlayers]. Loading a chapter prepares the player paused, so
+     * it sniffs, sets up its decoder and buffers ahead of time.
+     */
+    private inner class PlayerDeck(val player: SimpleExoPlayer) : StandbyPlayers.Deck {
+
+        private var chapterId: String? = null
+
+        //队列变化后章节的位置会变，所以按 id 记
+        val chapterIndex: Int
+            get() = chapterId?.let { playlist.indexOf(it) } ?: StandbyPlayers.NO_CHAPTER
+
+        override var playWhenReady: Boolean
+            get() = player.playWhenReady
+            set(value) {
+                player.playWhenReady = value
+            }
+
+        override fun load(chapterIndex: Int, positionMs: Long) {
+            chapterId = playlist.idAt(chapterIndex)
+            player.setPlaybackParameters(exoPlayer.playbackParameters)
+            player.prepare(playlist.mediaSourceAt(chapterIndex))
+            player.seekTo(positionMs)
+        }
+
+        override fun seekTo(positionMs: Long) = player.seekTo(positionMs)
+
+        override fun unload() {
+            chapterId = null
+            player.stop(/* reset= */ true)
+        }
+    }
+
     private inner class UampQueueNavigator(
         mediaSession: MediaSessionCompat
     ) : TimelineQueueNavigator(mediaSession) {
+        private val window = Timeline.Window()
+
         override fun getMediaDescription(player: Player, windowIndex: Int): MediaDescriptionCompat {
-            return currentPlaylistItems[windowIndex].description
+            // Read the chapter from the timeline rather than from the playlist, so the queue
+            // stays right while a window slide is still on its way to the player.
+            val metadata = player.currentTimeline.getWindow(windowIndex, window).tag
+            return (metadata as? MediaMetadataCompat ?: NOTHING_PLAYING).description
+        }
+
+        override fun getSupportedQueueNavigatorActions(player: Player): Long {
+            val actions = super.getSupportedQueueNavigatorActions(player)
+            val standbyPlayers = standbyPlayers ?: return actions
+            // The player's timeline is a single chapter, the book goes on in the other player.
+            return if (standbyPlayers.activeChapter + 1 < playlist.size) {
+                actions or PlaybackStateCompat.ACTION_SKIP_TO_NEXT or PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+            } else {
+                actions or PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+            }
+        }
+
+        override fun onSkipToNext(player: Player, controlDispatcher: ControlDispatcher) {
+            val standbyPlayers = standbyPlayers ?: return super.onSkipToNext(player, controlDispatcher)
+            standbyPlayers.advance()
+        }
+
+        override fun onSkipToPrevious(player: Player, controlDispatcher: ControlDispatcher) {
+            val standbyPlayers = standbyPlayers ?: return super.onSkipToPrevious(player, controlDispatcher)
+            val chapterIndex = standbyPlayers.activeChapter
+            // Like TimelineQueueNavigator: well into a chapter, skip-previous restarts it.
+            if (chapterIndex <= 0 || player.currentPosition > MAX_POSITION_FOR_SKIP_TO_PREVIOUS_MS) {
+                controlDispatcher.dispatchSeekTo(player, player.currentWindowIndex, 0)
+            } else {
+                standbyPlayers.play(chapterIndex - 1, 0, player.playWhenReady)
+            }
         }
     }
 
@@ -572,26 +1194,22 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
             Log.d(TAG, "onPrepareFromMediaId: mediaId--> $mediaId")
             Log.d(TAG, "onPrepareFromMediaId: playWhenReady--> $playWhenReady")
             Log.d(TAG, "onPrepareFromMediaId: extras--> $extras")
+            qoe.onPrepareRequested(SystemClock.elapsedRealtime())
 //            val item = currentPlaylistItems.find { mediaId == it.description.mediaId }
-            extras?.run {
-                val mediaItem = getParcelable<ChapterAudioItem>(ACTION_ADD_MEDIA_ITEM)
-                Log.d(TAG, "onPrepareFromMediaId: mediaItem id -->${mediaItem?.id}")
-                mediaItem?.run {
-                    val metadata = createMetaDataFromAudioItem(this)
-                    val item = currentPlaylistItems.find { metadata.id == it.id }
-                    if (item != null) {
-                        exoPlayer.playWhenReady = true
-                        exoPlayer.prepare(mediaSource)
-                    }else {
-                        currentPlaylistItems.add(metadata)
-                        preparePlaylist(
-                            metadataList = currentPlaylistItems,
-                            metadata,
-                            playWhenReady,
-                            0
-                        )
-                    }
-                }
+            val mediaItem = extras?.getParcelable<ChapterAudioItem>(ACTION_ADD_MEDIA_ITEM)
+            Log.d(TAG, "onPrepareFromMediaId: mediaItem id -->${mediaItem?.id}")
+            //书从目录文件打开时只需要传 mediaId
+            var chapterIndex = playlist.indexOf(mediaItem?.id ?: mediaId)
+            if (chapterIndex == C.INDEX_UNSET && mediaItem != null) {
+                playlist.add(mediaItem)
+                chapterIndex = playlist.size - 1
+            }
+            if (chapterIndex != C.INDEX_UNSET) {
+                preparePlaylist(
+                    chapterIndex,
+                    playWhenReady,
+                    0
+                )
             }
 
         }
@@ -630,14 +1248,17 @@ class ReaderAudioService : MediaBrowserServiceCompat() {
         }
     }
 
-    private fun createMetaDataList(audioItems: ArrayList<ChapterAudioItem>): List<MediaMetadataCompat> {
+    private fun createMetaDataList(audioItems: List<ChapterAudioItem>): List<MediaMetadataCompat> {
+        EventTrace.record(EventRing.CREATE_METADATA, arg = audioItems.size.toLong())
         val metadataList = audioItems.map {
-            Log.d(TAG, "createMetaDataList: id---> ${it.id}")
             MediaMetadataCompat.Builder()
                 .from(it)
                 .apply {
-                    displayIconUri = novelModel.img // Used by ExoPlayer and Notification
-                    albumArtUri = novelModel.img
+                    //封面取每一章自己的 img，窗口里的章节可能来自目录文件，和示例的 novelModel 无关
+                    displayIconUri = it.img // Used by ExoPlayer and Notification
+                    albumArtUri = it.img
+                    val probedMs = durationProber.knownDurationMs(it.source)
+                    if (probedMs != C.TIME_UNSET) duration = probedMs
                 }
                 .build()
         }
@@ -0,0 +1,71 @@
+package com.hyy.readeraudiosample
+
+import android.net.Uri
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.TransferListener
+import com.google.android.exoplayer2.upstream.cache.CacheUtil
+
+/**
+ * Passes reads through to [upstream] and builds a [Mp3SeekIndex] from the bytes on the way, for
+ * chapters [chapterCache] has no index for yet. Whoever reads a chapter first, the player or the
+ * prefetcher, from the network or from disk, leaves the index behind.
+ *
+ * Only a read that starts at the first byte and reaches the end of the file yields an index; one
+ * that is closed early, because of a seek or a partial download, is dropped.
+ */
+class SeekIndexingDataSource(
+    private val upstream: DataSource,
+    private val chapterCache: ChapterCache
+) : DataSource {
+
+    class Factory(
+        private val upstreamFactory: DataSource.Factory,
+        private val chapterCache: ChapterCache
+    ) : DataSource.Factory {
+        override fun createDataSource(): DataSource =
+            SeekIndexingDataSource(upstreamFactory.createDataSource(), chapterCache)
+    }
+
+    private var key: String? = null
+    private var builder: Mp3SeekIndex.Builder? = null
+
+    override fun addTransferListener(transferListener: TransferListener) =
+        upstream.addTransferListener(transferListener)
+
+    override fun open(dataSpec: DataSpec): Long {
+        val length = upstream.open(dataSpec)
+        val key = CacheUtil.getKey(dataSpec)
+        if (dataSpec.absoluteStreamPosition == 0L &&
+            dataSpec.length == C.LENGTH_UNSET.toLong() &&
+            !chapterCache.hasSeekIndex(key)
+        ) {
+            this.key = key
+            builder = Mp3SeekIndex.Builder()
+        }
+        return length
+    }
+
+    override fun read(buffer: ByteArray, offset: Int, readLength: Int): Int {
+        val read = upstream.read(buffer, offset, readLength)
+        val builder = builder ?: return read
+        if (read == C.RESULT_END_OF_INPUT) {
+            builder.build()?.let { chapterCache.putSeekIndex(key!!, it) }
+            this.builder = null
+        } else {
+            builder.feed(buffer, offset, read)
+        }
+        return read
+    }
+
+    override fun getUri(): Uri? = upstream.uri
+
+    override fun getResponseHeaders(): Map<String, List<String>> = upstream.responseHeaders
+
+    override fun close() {
+        builder = null
+        key = null
+        upstream.close()
+    }
+}
@@ -0,0 +1,103 @@
+package com.hyy.readeraudiosample
+
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.android.asCoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancelChildren
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Where all background work of [ReaderAudioService] lives, bound to the service's lifecycle.
+ *
+ * Work is split by what it waits on. Each class has its own small pool of named threads, so one
+ * can't starve the other and a thread dump shows who is busy:
+ * - [fetch], for network and disk reads: chapter prefetch, covers;
+ * - [parse], for CPU-bound work on bytes already fetched: headers, seek tables.
+ *
+ * Coroutines launched in the scope itself run on [playback], the thread the player runs on.
+ * Components get their own [child] scope, which they may cancel without affecting the others.
+ */
+class ServiceScope(
+    looper: Looper,
+    fetchParallelism: Int = DEFAULT_FETCH_PARALLELISM,
+    parseParallelism: Int = DEFAULT_PARSE_PARALLELISM
+) : CoroutineScope {
+
+    private val job = SupervisorJob()
+
+    //child() 创建的组件作用域，cancelWork() 只取消它们里面的任务
+    private val childJobs = HashSet<Job>()
+
+    val playback: CoroutineDispatcher = Handler(looper).asCoroutineDispatcher("ReaderAudio-playback")
+
+    private val fetchExecutor =
+        Executors.newFixedThreadPool(fetchParallelism, threadFactory("ReaderAudio-fetch"))
+    private val parseExecutor =
+        Executors.newFixedThreadPool(parseParallelism, threadFactory("ReaderAudio-parse"))
+
+    val fetch: CoroutineDispatcher = fetchExecutor.asCoroutineDispatcher()
+
+    val parse: CoroutineDispatcher = parseExecutor.asCoroutineDispatcher()
+
+    override val coroutineContext: CoroutineContext = job + playback
+
+    /**
+     * A scope for one component, running on [dispatcher]. It is cancelled with this one, and a
+     * failing or cancelled coroutine in it affects nothing else.
+     */
+    fun child(dispatcher: CoroutineDispatcher = playback): CoroutineScope {
+        val childJob = SupervisorJob(job)
+        synchronized(childJobs) { childJobs += childJob }
+        childJob.invokeOnCompletion { synchronized(childJobs) { childJobs -= childJob } }
+        return CoroutineScope(childJob + dispatcher)
+    }
+
+    /**
+     * Cancels everything running, but keeps the scopes usable, for when playback stops while the
+     * service itself lives on.
+     */
+    fun cancelWork() {
+        val children = job.children.toList()
+        for (child in children) {
+            val isScope = synchronized(childJobs) { child in childJobs }
+            if (isScope) child.cancelChildren() else child.cancel()
+        }
+    }
+
+    /**
+     * Cancels everything for good and stops the threads; blocked reads are interrupted.
+     */
+    fun close() {
+        job.cancel()
+        fetchExecutor.shutdownNow()
+        parseExecutor.shutdownNow()
+    }
+
+    override fun toString(): String =
+        "ServiceScope(active=${job.isActive}, children=${job.children.count()})"
+
+    companion object {
+        // Prefetch and covers each need one or two at a time; more only competes for bandwidth.
+        const val DEFAULT_FETCH_PARALLELISM = 4
+        const val DEFAULT_PARSE_PARALLELISM = 2
+
+        private fun threadFactory(name: String): ThreadFactory {
+            val count = AtomicInteger()
+            return ThreadFactory { runnable ->
+                Thread({
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+                    runnable.run()
+                }, "$name-${count.incrementAndGet()}")
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.hyy.readeraudiosample
+
+import android.os.Bundle
+import android.os.SystemClock
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.LoadControl
+import com.google.android.exoplayer2.Renderer
+import com.google.android.exoplayer2.source.TrackGroupArray
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray
+import com.google.android.exoplayer2.upstream.Allocator
+import com.google.android.exoplayer2.upstream.DefaultAllocator
+
+/**
+ * A [LoadControl] for hour-long spoken-word chapters. ExoPlayer's default one is sized for music
+ * and video: it tops the buffer up in small chunks between 15 and 50 s, which keeps waking the
+ * radio, and sizes memory for high bitrates. Here loading goes in long bursts with minutes of
+ * silence in between, as decided by [buffer], and the memory cap comes from the [policy].
+ *
+ * The [policy] follows the network, see [NetworkPolicyMonitor]; it may be changed from any thread
+ * and applies from the next loading decision on.
+ */
+class SpeechLoadControl(
+    policy: BurstBuffer.Policy = BurstBuffer.UNMETERED
+) : LoadControl {
+
+    private val allocator = DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE)
+
+    val buffer = BurstBuffer(policy) { SystemClock.elapsedRealtime() }
+
+    var policy: BurstBuffer.Policy
+        get() = buffer.policy
+        set(value) {
+            if (buffer.policy === value) return
+            buffer.policy = value
+            // Frees what the new cap doesn't need, once the player lets go of it.
+            allocator.setTargetBufferSize(value.maxBytes)
+        }
+
+    override fun onPrepared() = reset(resetAllocator = false)
+
+    override fun onTracksSelected(
+        renderers: Array<Renderer>,
+        trackGroups: TrackGroupArray,
+        trackSelections: TrackSelectionArray
+    ) {
+        allocator.setTargetBufferSize(buffer.policy.maxBytes)
+    }
+
+    override fun onStopped() = reset(resetAllocator = true)
+
+    override fun onReleased() = reset(resetAllocator = true)
+
+    override fun getAllocator(): Allocator = allocator
+
+    // Kept so that rewinding by the session's rewind increment doesn't go back to the network.
+    override fun getBackBufferDurationUs(): Long = C.msToUs(BACK_BUFFER_MS)
+
+    // Every audio frame is a key frame.
+    override fun retainBackBufferFromKeyframe(): Boolean = false
+
+    override fun shouldContinueLoading(bufferedDurationUs: Long, playbackSpeed: Float): Boolean =
+        buffer.shouldLoad(C.usToMs(bufferedDurationUs), playbackSpeed, allocator.totalBytesAllocated)
+
+    override fun shouldStartPlayback(
+        bufferedDurationUs: Long,
+        playbackSpeed: Float,
+        rebuffering: Boolean
+    ): Boolean = buffer.shouldStartPlayback(
+        C.usToMs(bufferedDurationUs),
+        playbackSpeed,
+        rebuffering,
+        allocator.totalBytesAllocated
+    )
+
+    fun toBundle(): Bundle = Bundle().apply {
+        val burstMs = buffer.burstMs()
+        val sleepMs = buffer.sleepMs()
+        putString(POLICY, buffer.policy.name)
+        putLong(BUFFERED_MS, buffer.bufferedMs)
+        putInt(ALLOCATED_BYTES, buffer.allocatedBytes)
+        putInt(PEAK_BYTES, buffer.peakBytes)
+        putLong(BURSTS, buffer.bursts)
+        putLong(RADIO_ON_PERMILLE, buffer.radioOnPermille)
+        putLong(BURST_P50_MS, burstMs.percentile(50))
+        putLong(BURST_P95_MS, burstMs.percentile(95))
+        putLong(SLEEP_P50_MS, sleepMs.percentile(50))
+        putLong(SLEEP_P95_MS, sleepMs.percentile(95))
+    }
+
+    override fun toString(): String =
+        "$buffer, burstMs: ${buffer.burstMs()}, sleepMs: ${buffer.sleepMs()}"
+
+    private fun reset(resetAllocator: Boolean) {
+        buffer.reset()
+        if (resetAllocator) allocator.reset()
+    }
+
+    companion object {
+        const val POLICY = "buffer_policy"
+        const val BUFFERED_MS = "buffer_buffered_ms"
+        const val ALLOCATED_BYTES = "buffer_allocated_bytes"
+        const val PEAK_BYTES = "buffer_peak_bytes"
+        const val BURSTS = "buffer_bursts"
+        const val RADIO_ON_PERMILLE = "buffer_radio_on_permille"
+        const val BURST_P50_MS = "buffer_burst_p50_ms"
+        const val BURST_P95_MS = "buffer_burst_p95_ms"
+        const val SLEEP_P50_MS = "buffer_sleep_p50_ms"
+        const val SLEEP_P95_MS = "buffer_sleep_p95_ms"
+
+        // Twice the session's 15 s rewind increment.
+        private const val BACK_BUFFER_MS = 30_000L
+    }
+}
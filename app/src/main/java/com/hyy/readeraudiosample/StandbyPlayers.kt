@@ -0,0 +1,138 @@
+package com.hyy.readeraudiosample
+
+/**
+ * Plays a book on two decks that hold one chapter each: the active deck plays the current chapter
+ * while the standby deck holds the next one, prepared, paused at its start and buffered. At the
+ * end of a chapter, or on skip-next, the two swap, so the next chapter starts without paying for
+ * sniffing, codec setup and buffering at the boundary; the old active deck then loads the chapter
+ * after that and becomes the standby.
+ *
+ * A deck is a player seen from here. [onChapterStarted] hears of every chapter started, with the
+ * deck that was active before; when the two differ the service moves the session and the
+ * notification over to the new one. Not thread-safe, use it from the playback thread.
+ */
+class StandbyPlayers<D : StandbyPlayers.Deck>(
+    first: D,
+    second: D,
+    private val chapterCount: () -> Int,
+    private val onChapterStarted: (active: D, previous: D, chapterIndex: Int) -> Unit
+) {
+
+    interface Deck {
+        var playWhenReady: Boolean
+
+        /**
+         * Prepares [chapterIndex], paused at [positionMs]. Returns right away, the deck buffers
+         * in the background.
+         */
+        fun load(chapterIndex: Int, positionMs: Long)
+
+        fun seekTo(positionMs: Long)
+
+        fun unload()
+    }
+
+    var active: D = first
+        private set
+    var standby: D = second
+        private set
+
+    var activeChapter = NO_CHAPTER
+        private set
+    var standbyChapter = NO_CHAPTER
+        private set
+
+    //统计：多少次切换用上了备用播放器，多少次只能现场准备
+    var warmSwitches = 0
+        private set
+    var coldSwitches = 0
+        private set
+
+    /**
+     * Plays [chapterIndex] from [positionMs]. The standby deck is used when it holds that chapter,
+     * otherwise the active deck loads it; either way the standby deck then loads the next chapter.
+     */
+    fun play(chapterIndex: Int, positionMs: Long, playWhenReady: Boolean) {
+        val previous = active
+        if (chapterIndex == standbyChapter) {
+            switchTo(chapterIndex, positionMs, playWhenReady)
+        } else {
+            coldSwitches++
+            active.playWhenReady = false
+            active.load(chapterIndex, positionMs)
+            active.playWhenReady = playWhenReady
+            activeChapter = chapterIndex
+        }
+        onChapterStarted(active, previous, chapterIndex)
+        loadStandby()
+    }
+
+    /**
+     * Moves on to the chapter after the active one, at its end or on skip-next, and keeps playing
+     * if the active deck was.
+     *
+     * @return false at the end of the book.
+     */
+    fun advance(): Boolean {
+        val next = activeChapter + 1
+        if (activeChapter == NO_CHAPTER || next >= chapterCount()) return false
+        play(next, 0, active.playWhenReady)
+        return true
+    }
+
+    /**
+     * Takes the chapter indices of the two decks after the queue changed, [NO_CHAPTER] for one that
+     * is gone. The standby deck keeps its chapter if that still follows the active one, otherwise
+     * it loads the one that does now.
+     */
+    fun onQueueChanged(activeChapter: Int, standbyChapter: Int) {
+        if (this.activeChapter == NO_CHAPTER) return
+        this.activeChapter = activeChapter
+        if (this.standbyChapter != NO_CHAPTER) this.standbyChapter = standbyChapter
+        loadStandby()
+    }
+
+    fun stop() {
+        active.playWhenReady = false
+        active.unload()
+        standby.unload()
+        activeChapter = NO_CHAPTER
+        standbyChapter = NO_CHAPTER
+    }
+
+    override fun toString(): String =
+        "StandbyPlayers(active=$activeChapter, standby=$standbyChapter, warm=$warmSwitches, " +
+                "cold=$coldSwitches)"
+
+    private fun switchTo(chapterIndex: Int, positionMs: Long, playWhenReady: Boolean) {
+        warmSwitches++
+        val previous = active
+        // The standby deck waits at the start of its chapter; any other position costs a seek,
+        // but still within what it has buffered or close to it.
+        if (positionMs != 0L) standby.seekTo(positionMs)
+        // Pause the old deck first, so the two never hold audio focus at the same time.
+        previous.playWhenReady = false
+        standby.playWhenReady = playWhenReady
+        active = standby
+        standby = previous
+        activeChapter = chapterIndex
+        standbyChapter = NO_CHAPTER
+    }
+
+    private fun loadStandby() {
+        val next = activeChapter + 1
+        if (activeChapter == NO_CHAPTER || next >= chapterCount()) {
+            // Nothing to hold; after a switch this also frees the chapter that just ended.
+            standby.unload()
+            standbyChapter = NO_CHAPTER
+            return
+        }
+        if (standbyChapter == next) return
+        standby.load(next, 0)
+        standbyChapter = next
+    }
+
+    companion object {
+        const val NO_CHAPTER = -1
+    }
+}
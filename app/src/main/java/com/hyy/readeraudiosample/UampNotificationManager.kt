@@ -5,17 +5,13 @@ import android.app.PendingIntent
 import android.content.Context
 import android.graphics.Bitmap
 import android.net.Uri
+import android.os.SystemClock
 import android.support.v4.media.session.MediaControllerCompat
 import android.support.v4.media.session.MediaSessionCompat
-import com.bumptech.glide.Glide
-import com.bumptech.glide.load.engine.DiskCacheStrategy
-import com.bumptech.glide.request.RequestOptions
 import com.google.android.exoplayer2.Player
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
 
 const val NOW_PLAYING_CHANNEL_ID = "com.hyy.reader.audio.sample.NOW_PLAYING"
 const val NOW_PLAYING_NOTIFICATION_ID = 0xb339 // Arbitrary number used to identify our notification
@@ -23,16 +19,21 @@ const val NOW_PLAYING_NOTIFICATION_ID = 0xb339 // Arbitrary number used to ident
 /**
  * A wrapper class for ExoPlayer's PlayerNotificationManager. It sets up the notification shown to
  * the user during audio playback and provides track metadata, such as track title and icon image.
+ *
+ * Everything, from player events to cover loads finishing, is handled on the playback thread of
+ * [serviceScope], which must be the application thread of the players it is shown for.
  */
 class UampNotificationManager(
     private val context: Context,
     sessionToken: MediaSessionCompat.Token,
-    notificationListener: PlayerNotificationManager.NotificationListener
+    notificationListener: PlayerNotificationManager.NotificationListener,
+    private val serviceScope: ServiceScope
 ) {
 
     private var player: Player? = null
-    private val serviceJob = SupervisorJob()
-    private val serviceScope = CoroutineScope(Dispatchers.Main + serviceJob)
+    //封面加载等通知相关的协程，release() 时一起取消
+    private val scope = serviceScope.child()
+    private val createdAtMs = SystemClock.elapsedRealtime()
     private val notificationManager: PlayerNotificationManager
     private val platformNotificationManager: NotificationManager =
         context.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
@@ -67,12 +68,40 @@ class UampNotificationManager(
         notificationManager.setPlayer(player)
     }
 
+    /**
+     * How often the notification was actually posted, and how many updates were skipped.
+     */
+    override fun toString(): String {
+        val posted = notificationManager.postedUpdateCount
+        val minutes = (SystemClock.elapsedRealtime() - createdAtMs) / 60_000f
+        val perMinute = if (minutes > 0) posted / minutes else 0f
+        return "UampNotificationManager(posted=$posted, " +
+                "suppressed=${notificationManager.suppressedUpdateCount}, " +
+                "postsPerMinute=${"%.1f".format(perMinute)})"
+    }
+
+    /**
+     * Stops any cover still loading; the notification can't be updated afterwards.
+     */
+    fun release() {
+        scope.cancel()
+    }
+
     private inner class DescriptionAdapter(private val controller: MediaControllerCompat) :
         PlayerNotificationManager.MediaDescriptionAdapter {
 
         var currentIconUri: Uri? = null
         var currentBitmap: Bitmap? = null
 
+        private val artworkCache = ArtworkCache.getInstance(context)
+        private val artworkLoader = ArtworkLoader(artworkCache, scope, serviceScope.fetch)
+
+        //正在加载 currentIconUri 的任务，换了封面就取消
+        private var iconJob: Job? = null
+
+        //最新一次通知的回调，旧通知的回调拿到图片也没用
+        private var latestCallback: PlayerNotificationManager.BitmapCallback? = null
+
         override fun createCurrentContentIntent(player: Player): PendingIntent? =
             controller.sessionActivity
 
@@ -87,40 +116,37 @@ class UampNotificationManager(
             callback: PlayerNotificationManager.BitmapCallback
         ): Bitmap? {
             val iconUri = controller.metadata.description.iconUri
-            return if (currentIconUri != iconUri || currentBitmap == null) {
-
-                // Cache the bitmap for the current song so that successive calls to
-                // `getCurrentLargeIcon` don't cause the bitmap to be recreated.
-                currentIconUri = iconUri
-                serviceScope.launch {
-                    currentBitmap = iconUri?.let {
-                        resolveUriAsBitmap(it)
-                    }
-                    currentBitmap?.let { callback.onBitmap(it) }
-                }
-                null
-            } else {
-                currentBitmap
+            latestCallback = callback
+            if (currentIconUri == iconUri && currentBitmap != null) {
+                return currentBitmap
+            }
+            if (currentIconUri == iconUri && iconJob?.isActive == true) {
+                // Already loading this cover; the result goes to the latest callback.
+                return null
             }
-        }
 
-        private suspend fun resolveUriAsBitmap(uri: Uri): Bitmap? {
-            return withContext(Dispatchers.IO) {
-                // Block on downloading artwork.
-                Glide.with(context).applyDefaultRequestOptions(glideOptions)
-                    .asBitmap()
-                    .load(uri)
-                    .submit(NOTIFICATION_LARGE_ICON_SIZE, NOTIFICATION_LARGE_ICON_SIZE)
-                    .get()
+            // A different cover: whatever was loading for the previous one is no longer wanted.
+            iconJob?.cancel()
+            currentIconUri = iconUri
+            currentBitmap = null
+            if (iconUri == null) return null
+            // Chapters of a book share their cover, so it is usually in memory already.
+            artworkCache.get(iconUri, NOTIFICATION_LARGE_ICON_SIZE)?.let {
+                currentBitmap = it
+                return it
             }
+            iconJob = scope.launch {
+                val bitmap = artworkLoader.load(iconUri, NOTIFICATION_LARGE_ICON_SIZE)
+                if (bitmap != null && currentIconUri == iconUri) {
+                    currentBitmap = bitmap
+                    latestCallback?.onBitmap(bitmap)
+                }
+            }
+            return null
         }
     }
 }
 
 const val NOTIFICATION_LARGE_ICON_SIZE = 144 // px
 
-private val glideOptions = RequestOptions()
-    .fallback(R.drawable.default_art)
-    .diskCacheStrategy(DiskCacheStrategy.DATA)
-
 private const val MODE_READ_ONLY = "r"
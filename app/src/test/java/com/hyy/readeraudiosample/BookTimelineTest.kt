@@ -0,0 +1,73 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Local unit test for [BookTimeline], checked against plain prefix sums.
+ */
+class BookTimelineTest {
+
+    private fun prefixSums(durations: LongArray) =
+        LongArray(durations.size + 1).also { for (i in durations.indices) it[i + 1] = it[i] + durations[i] }
+
+    private fun assertMatches(durations: LongArray, timeline: BookTimeline) {
+        val starts = prefixSums(durations)
+        assertEquals(starts[durations.size], timeline.totalMs)
+        for (i in 0..durations.size) assertEquals(starts[i], timeline.startOf(i))
+        for (i in durations.indices) {
+            if (durations[i] == 0L) continue
+            assertEquals(i, timeline.chapterAt(starts[i]))
+            assertEquals(i, timeline.chapterAt(starts[i + 1] - 1))
+        }
+    }
+
+    @Test
+    fun mapsPositionsBothWays() {
+        val random = Random(3000)
+        val durations = LongArray(3000) { 60_000L + random.nextInt(40 * 60_000) }
+        assertMatches(durations, BookTimeline(durations))
+    }
+
+    @Test
+    fun setDurationMs_updatesLaterChapters() {
+        val random = Random(7)
+        val durations = LongArray(1000) { random.nextInt(600_000).toLong() }
+        val timeline = BookTimeline(durations)
+        repeat(200) {
+            val chapter = random.nextInt(durations.size)
+            val duration = random.nextInt(600_000).toLong()
+            assertEquals(duration != durations[chapter], timeline.setDurationMs(chapter, duration))
+            durations[chapter] = duration
+        }
+        assertMatches(durations, timeline)
+    }
+
+    @Test
+    fun chapterAt_skipsEmptyChaptersAndClamps() {
+        val timeline = BookTimeline(longArrayOf(0, 1_000, 0, 0, 2_000, 500))
+        assertEquals(1, timeline.chapterAt(-5))
+        assertEquals(1, timeline.chapterAt(0))
+        assertEquals(4, timeline.chapterAt(1_000))
+        assertEquals(5, timeline.chapterAt(3_000))
+        assertEquals(5, timeline.chapterAt(Long.MAX_VALUE))
+        assertEquals(500, timeline.offsetInChapter(5, 10_000))
+        assertEquals(-1, BookTimeline(LongArray(0)).chapterAt(0))
+    }
+
+    @Test
+    fun fractionOfBook_landsInTheRightChapter() {
+        val timeline = BookTimeline(LongArray(3000) { 10 * 60_000L })
+        val position = (timeline.totalMs * 0.63).toLong()
+        val chapter = timeline.chapterAt(position)
+        assertEquals(1890, chapter)
+        assertEquals(0, timeline.offsetInChapter(chapter, position))
+        assertTrue(timeline.setDurationMs(0, 5 * 60_000L))
+        assertFalse(timeline.setDurationMs(0, 5 * 60_000L))
+        assertEquals(1890, timeline.chapterAt(position))
+        assertEquals(5 * 60_000L, timeline.offsetInChapter(1890, position))
+    }
+}
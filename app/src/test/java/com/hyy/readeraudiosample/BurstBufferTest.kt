@@ -0,0 +1,106 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Local unit test for [BurstBuffer], playing a chapter against a simulated network on a fake
+ * clock.
+ */
+class BurstBufferTest {
+
+    private var nowMs = 0L
+    private val policy = BurstBuffer.Policy(
+        name = "test",
+        lowWatermarkMs = 60_000,
+        highWatermarkMs = 300_000,
+        maxBytes = 4_000_000,
+        bufferForPlaybackMs = 1_000,
+        bufferForPlaybackAfterRebufferMs = 2_500
+    )
+    private val buffer = BurstBuffer(policy) { nowMs }
+
+    /**
+     * Plays for [durationMs] in 100 ms steps at [speed], loading 10 s of audio per step while the
+     * buffer asks for it, and returns the buffer's media duration at the end.
+     */
+    private fun play(startBufferedMs: Long, durationMs: Long, speed: Float = 1f): Long {
+        var bufferedMs = startBufferedMs
+        repeat((durationMs / STEP_MS).toInt()) {
+            if (buffer.shouldLoad(bufferedMs, speed, bytes(bufferedMs))) bufferedMs += 10_000
+            nowMs += STEP_MS
+            bufferedMs = (bufferedMs - (STEP_MS * speed).toLong()).coerceAtLeast(0)
+        }
+        return bufferedMs
+    }
+
+    // 64 kbps speech.
+    private fun bytes(bufferedMs: Long) = (bufferedMs * 8).toInt()
+
+    @Test
+    fun loadsInBurstsBetweenWatermarks() {
+        play(0, 30 * 60_000L)
+
+        // Each burst fills from below 1 min to 5 min in about 3 s, then sleeps for about 4 min.
+        assertTrue(buffer.bursts in 7L..8L)
+        assertTrue(buffer.radioOnPermille <= 15)
+        assertTrue(buffer.burstMs().max <= 3_500)
+        val sleepMs = buffer.sleepMs()
+        assertEquals(buffer.bursts - 1, sleepMs.count)
+        assertTrue(sleepMs.mean >= 235_000)
+        assertTrue(buffer.peakBytes <= bytes(310_000))
+    }
+
+    @Test
+    fun watermarksAreInWallClockTime() {
+        // At 2x, 150 s of audio only lasts 75 s: that is above the low watermark at 1x only.
+        assertFalse(buffer.shouldLoad(150_000, 1f, bytes(150_000)))
+        buffer.reset()
+        assertTrue(buffer.shouldLoad(110_000, 2f, bytes(110_000)))
+        // And a burst at 2x goes on to 5 min of wall-clock time, 10 min of audio.
+        assertTrue(buffer.shouldLoad(400_000, 2f, bytes(400_000)))
+        assertFalse(buffer.shouldLoad(600_000, 2f, bytes(600_000)))
+    }
+
+    @Test
+    fun byteCapEndsBurstEarly() {
+        assertTrue(buffer.shouldLoad(0, 1f, 0))
+        assertFalse(buffer.shouldLoad(30_000, 1f, policy.maxBytes))
+        assertTrue(buffer.shouldStartPlayback(0, 1f, rebuffering = true, allocatedBytes = policy.maxBytes))
+    }
+
+    @Test
+    fun startsPlaybackOnceEnoughIsBuffered() {
+        assertFalse(buffer.shouldStartPlayback(900, 1f, rebuffering = false, allocatedBytes = 0))
+        assertTrue(buffer.shouldStartPlayback(1_000, 1f, rebuffering = false, allocatedBytes = 0))
+        assertFalse(buffer.shouldStartPlayback(2_000, 1f, rebuffering = true, allocatedBytes = 0))
+        assertTrue(buffer.shouldStartPlayback(5_000, 2f, rebuffering = true, allocatedBytes = 0))
+    }
+
+    @Test
+    fun policyChangeAppliesToNextDecision() {
+        assertTrue(buffer.shouldLoad(30_000, 1f, bytes(30_000)))
+        assertTrue(buffer.shouldLoad(100_000, 1f, bytes(100_000)))
+        buffer.policy = BurstBuffer.OFFLINE
+        assertFalse(buffer.shouldLoad(100_000, 1f, bytes(100_000)))
+        assertEquals("offline", buffer.policy.toString())
+    }
+
+    @Test
+    fun stoppedTimeIsNotCounted() {
+        play(0, 60_000)
+        val loadingMs = buffer.loadingMs
+        val idleMs = buffer.idleMs
+        buffer.reset()
+        nowMs += 3_600_000
+        buffer.shouldLoad(0, 1f, 0)
+        assertEquals(loadingMs, buffer.loadingMs)
+        assertEquals(idleMs, buffer.idleMs)
+    }
+
+    companion object {
+        private const val STEP_MS = 100L
+    }
+}
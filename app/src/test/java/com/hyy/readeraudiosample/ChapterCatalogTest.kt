@@ -0,0 +1,113 @@
+package com.hyy.readeraudiosample
+
+import com.hyy.readeraudiosample.model.ChapterAudioItem
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Local unit test for [ChapterCatalog], writing catalogs to a temporary folder and mapping them
+ * back.
+ */
+class ChapterCatalogTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun chapter(i: Int) = ChapterAudioItem(
+        chapterName = "第${i}章",
+        bookName = "book",
+        source = "https://example.com/audio/$i.mp3",
+        id = "chapter-$i",
+        duration = 600L + i,
+        img = "https://example.com/cover.jpg"
+    )
+
+    private fun writeAndOpen(chapters: List<ChapterAudioItem>): ChapterCatalog {
+        val file = File(folder.root, "book.catalog")
+        ChapterCatalog.write(file, chapters)
+        return ChapterCatalog.open(file)
+    }
+
+    private fun assertNotOpened(file: File) {
+        try {
+            ChapterCatalog.open(file)
+        } catch (e: IOException) {
+            return
+        }
+        throw AssertionError("opened $file")
+    }
+
+    @Test
+    fun write_open_roundTrips() {
+        val chapters = List(1000) { chapter(it) }
+        val catalog = writeAndOpen(chapters)
+
+        assertEquals(chapters.size, catalog.size)
+        assertEquals(chapters, catalog.subList(0, chapters.size))
+        assertEquals(chapters[500], catalog[500])
+        assertEquals(chapters[999].id, catalog.idAt(999))
+        assertEquals(chapters[999].source, catalog.sourceAt(999))
+        assertEquals(chapters[42].duration, catalog.durationAt(42))
+    }
+
+    @Test
+    fun write_dropsRepeatedIds() {
+        val catalog = writeAndOpen(listOf(chapter(0), chapter(1), chapter(0).copy(chapterName = "again")))
+        assertEquals(2, catalog.size)
+        assertEquals(chapter(0), catalog[0])
+    }
+
+    @Test
+    fun indexOf_findsEveryChapter() {
+        val catalog = writeAndOpen(List(1000) { chapter(it) })
+        for (i in 0 until 1000) assertEquals(i, catalog.indexOf("chapter-$i"))
+    }
+
+    @Test
+    fun indexOf_missingId_returnsMinusOne() {
+        val catalog = writeAndOpen(List(1000) { chapter(it) })
+        assertEquals(-1, catalog.indexOf(null))
+        assertEquals(-1, catalog.indexOf("chapter-1000"))
+        assertEquals(-1, catalog.indexOf("chapter-"))
+        assertEquals(-1, catalog.indexOf(""))
+    }
+
+    @Test
+    fun emptyCatalog_hasNoChapters() {
+        val catalog = writeAndOpen(emptyList())
+        assertEquals(0, catalog.size)
+        assertEquals(-1, catalog.indexOf("chapter-0"))
+    }
+
+    @Test
+    fun open_malformedHeader_throws() {
+        val file = File(folder.root, "book.catalog")
+        ChapterCatalog.write(file, List(10) { chapter(it) })
+
+        // No empty slot: slotCount no larger than the count.
+        val full = file.copyTo(File(folder.root, "full.catalog"))
+        RandomAccessFile(full, "rw").use {
+            it.seek(12)
+            it.writeInt(8)
+        }
+        assertNotOpened(full)
+
+        // Records that run past the end of the file.
+        val truncated = file.copyTo(File(folder.root, "truncated.catalog"))
+        RandomAccessFile(truncated, "rw").use { it.setLength(100) }
+        assertNotOpened(truncated)
+
+        val notCatalog = File(folder.root, "other.catalog").apply { writeBytes(ByteArray(64)) }
+        assertNotOpened(notCatalog)
+
+        val tooShort = File(folder.root, "short.catalog").apply { writeBytes(ByteArray(8)) }
+        assertNotOpened(tooShort)
+
+        assertEquals(10, ChapterCatalog.open(file).size)
+    }
+}
@@ -0,0 +1,86 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Local unit test for [ChapterIndex]. After every edit the index must agree with a plain scan of
+ * the list.
+ */
+class ChapterIndexTest {
+
+    private data class Chapter(val id: String, val name: String = id)
+
+    private val index = ChapterIndex<Chapter> { it.id }
+
+    private fun chapters(vararg ids: String) = ids.map { Chapter(it) }
+
+    private fun assertOrder(vararg ids: String) {
+        assertEquals(ids.toList(), index.subList(0, index.size).map { it.id })
+        ids.forEachIndexed { position, id -> assertEquals(position, index.indexOf(id)) }
+    }
+
+    @Test
+    fun addAll_atEnd_indexesNewChapters() {
+        index.addAll(chapters("a", "b"))
+        assertEquals(3, index.addAll(chapters("c", "d", "e")))
+        assertOrder("a", "b", "c", "d", "e")
+    }
+
+    @Test
+    fun addAll_inMiddle_shiftsLaterChapters() {
+        index.addAll(chapters("a", "b", "c"))
+        assertEquals(2, index.addAll(1, chapters("x", "y")))
+        assertOrder("a", "x", "y", "b", "c")
+    }
+
+    @Test
+    fun removeAt_forgetsChapterAndShiftsLaterOnes() {
+        index.addAll(chapters("a", "b", "c", "d"))
+        index.removeAt(1)
+        assertOrder("a", "c", "d")
+        assertEquals(-1, index.indexOf("b"))
+        assertFalse("b" in index)
+
+        index.removeRange(1, 3)
+        assertOrder("a")
+    }
+
+    @Test
+    fun move_reindexesChaptersBetween() {
+        index.addAll(chapters("a", "b", "c", "d", "e"))
+        index.move(0, 3)
+        assertOrder("b", "c", "d", "a", "e")
+        index.move(4, 1)
+        assertOrder("b", "e", "c", "d", "a")
+        index.move(2, 2)
+        assertOrder("b", "e", "c", "d", "a")
+    }
+
+    @Test
+    fun duplicateIds_areIgnored() {
+        index.addAll(chapters("a", "b"))
+        assertFalse(index.add(Chapter("a", "again")))
+        assertEquals(1, index.addAll(1, listOf(Chapter("c"), Chapter("b", "again"), Chapter("c", "again"))))
+        assertOrder("a", "c", "b")
+        assertEquals("a", index[0].name)
+        assertEquals("c", index[1].name)
+
+        // Once removed, the id can come back.
+        index.removeAt(0)
+        assertTrue(index.add(Chapter("a", "back")))
+        assertOrder("c", "b", "a")
+    }
+
+    @Test
+    fun indexOf_unknownId_returnsMinusOne() {
+        index.addAll(chapters("a"))
+        assertEquals(-1, index.indexOf("z"))
+        assertEquals(-1, index.indexOf(null))
+        index.clear()
+        assertEquals(-1, index.indexOf("a"))
+        assertEquals(0, index.size)
+    }
+}
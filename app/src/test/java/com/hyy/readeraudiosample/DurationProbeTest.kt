@@ -0,0 +1,116 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+/**
+ * Local unit test for [DurationProbe], on synthetic files read through a source that counts
+ * reads.
+ */
+class DurationProbeTest {
+
+    private class ByteSource(private val bytes: ByteArray) : DurationProbe.Source {
+        var reads = 0
+        var bytesRead = 0L
+
+        override val length: Long get() = bytes.size.toLong()
+
+        override fun read(position: Long, buffer: ByteArray, length: Int): Int {
+            reads++
+            val count = minOf(length.toLong(), bytes.size - position).coerceAtLeast(0).toInt()
+            System.arraycopy(bytes, position.toInt(), buffer, 0, count)
+            bytesRead += count
+            return count
+        }
+    }
+
+    // MPEG-1 layer III, 44.1 kHz, joint stereo, 128 kbps: 417 bytes and 1152 samples per frame.
+    private val header = 0xFFFB9040.toInt()
+
+    private fun DataOutputStream.frame(tag: String? = null, frames: Int = 0) {
+        val frame = ByteArray(417)
+        for (i in 0..3) frame[i] = (header ushr (24 - 8 * i)).toByte()
+        if (tag != null) {
+            tag.toByteArray().copyInto(frame, 36)
+            // Flags: frame count present, then the count.
+            frame[43] = 1
+            for (i in 0..3) frame[44 + i] = (frames ushr (24 - 8 * i)).toByte()
+        }
+        write(frame)
+    }
+
+    private fun mp3(id3Bytes: Int, tag: String?, frames: Int): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).apply {
+            if (id3Bytes > 0) {
+                write(byteArrayOf('I'.toByte(), 'D'.toByte(), '3'.toByte(), 4, 0, 0))
+                for (shift in intArrayOf(21, 14, 7, 0)) writeByte((id3Bytes ushr shift) and 0x7F)
+                write(ByteArray(id3Bytes))
+            }
+            if (tag != null) frame(tag, frames)
+            repeat(frames) { frame() }
+        }
+        return bytes.toByteArray()
+    }
+
+    @Test
+    fun mp3_xingFrameCount() {
+        val source = ByteSource(mp3(0, "Xing", 1000))
+        assertEquals(1000 * 1152L * 1_000_000 / 44100, DurationProbe.durationUs(source))
+        assertEquals(1, source.reads)
+    }
+
+    @Test
+    fun mp3_largeId3Tag_costsOneMoreRead() {
+        val source = ByteSource(mp3(200_000, "Info", 1000))
+        assertEquals(1000 * 1152L * 1_000_000 / 44100, DurationProbe.durationUs(source))
+        assertEquals(2, source.reads)
+        assertTrue(source.bytesRead < 10_000)
+    }
+
+    @Test
+    fun mp3_withoutTag_usesLengthOverBitrate() {
+        val bytes = mp3(100, null, 1000)
+        val audioBytes = bytes.size - 110L
+        assertEquals(audioBytes * 8 * 1_000_000 / 128_000, DurationProbe.durationUs(ByteSource(bytes)))
+    }
+
+    private fun DataOutputStream.box(type: String, size: Long) {
+        writeInt(size.toInt())
+        writeBytes(type)
+    }
+
+    @Test
+    fun mp4_moovAfterMdat() {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).apply {
+            box("ftyp", 16)
+            writeBytes("M4A ")
+            writeInt(0)
+            box("mdat", 8 + 500_000L)
+            write(ByteArray(500_000))
+            box("moov", 8 + 8 + 16 + 108)
+            box("udta", 16)
+            write(ByteArray(8))
+            box("mvhd", 108)
+            writeInt(0) // version 0, flags
+            writeInt(0)
+            writeInt(0)
+            writeInt(44_100) // timescale
+            writeInt(44_100 * 2_400 + 22_050) // duration
+            write(ByteArray(80))
+        }
+        val source = ByteSource(bytes.toByteArray())
+        assertEquals(2_400_500_000L, DurationProbe.durationUs(source))
+        assertTrue(source.bytesRead < 10_000)
+    }
+
+    @Test
+    fun unknownFormat() {
+        assertEquals(DurationProbe.UNKNOWN, DurationProbe.durationUs(ByteSource(ByteArray(4096))))
+        assertEquals(DurationProbe.UNKNOWN, DurationProbe.durationUs(ByteSource(ByteArray(4))))
+    }
+}
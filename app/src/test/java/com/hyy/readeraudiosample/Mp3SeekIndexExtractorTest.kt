@@ -0,0 +1,137 @@
+package com.hyy.readeraudiosample
+
+import android.net.Uri
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.Format
+import com.google.android.exoplayer2.extractor.DefaultExtractorInput
+import com.google.android.exoplayer2.extractor.Extractor
+import com.google.android.exoplayer2.extractor.ExtractorInput
+import com.google.android.exoplayer2.extractor.ExtractorOutput
+import com.google.android.exoplayer2.extractor.PositionHolder
+import com.google.android.exoplayer2.extractor.SeekMap
+import com.google.android.exoplayer2.extractor.TrackOutput
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.TransferListener
+import com.google.android.exoplayer2.util.ParsableByteArray
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.io.EOFException
+
+/**
+ * Local unit test for [Mp3SeekIndexExtractor], reading a [SyntheticMp3] through ExoPlayer's
+ * Mp3Extractor and seeking the way the player does: to the position of a seek point, with the
+ * time it was asked for.
+ */
+class Mp3SeekIndexExtractorTest {
+
+    private val mp3 = SyntheticMp3(1000)
+    private val index = mp3.index()
+    private val output = RecordingOutput()
+    private val extractor = Mp3SeekIndexExtractor(index).apply { init(output) }
+
+    /**
+     * Reads from [position] on until [samples] more samples came out.
+     */
+    private fun read(position: Long, samples: Int) {
+        val input = DefaultExtractorInput(ByteArraySource(mp3.bytes, position.toInt()), position, mp3.bytes.size.toLong())
+        val target = output.timesUs.size + samples
+        val seekPosition = PositionHolder()
+        while (output.timesUs.size < target) {
+            assertEquals(Extractor.RESULT_CONTINUE, extractor.read(input, seekPosition))
+        }
+    }
+
+    private fun assertFramesFrom(frame: Int) {
+        output.timesUs.forEachIndexed { i, timeUs ->
+            // Both count whole samples, each rounding down on its own.
+            assertEquals(SyntheticMp3.timeUs(frame + i).toDouble(), timeUs.toDouble(), 1.0)
+        }
+    }
+
+    @Test
+    fun read_fromStart_timesFramesFromZero() {
+        read(0, 20)
+        assertSame(extractor, output.seekMap)
+        assertEquals(0, output.timesUs[0])
+        assertFramesFrom(0)
+    }
+
+    @Test
+    fun seek_timesSamplesFromSeekPoint() {
+        read(0, 20)
+        for (targetUs in longArrayOf(5_500_000, 17_250_000, 2_000_000)) {
+            val seekPoint = extractor.getSeekPoints(targetUs).first
+            extractor.seek(seekPoint.position, targetUs)
+            output.timesUs.clear()
+            read(seekPoint.position, 50)
+
+            // The frame seeked to plays at its own time, not at the time asked for.
+            assertEquals(seekPoint.timeUs, output.timesUs[0])
+            assertFramesFrom(mp3.framePositions.indexOf(seekPoint.position))
+        }
+    }
+
+    @Test
+    fun seek_toStart_timesFramesFromZero() {
+        read(0, 20)
+        extractor.seek(0, 0)
+        output.timesUs.clear()
+        read(0, 20)
+        assertFramesFrom(0)
+    }
+
+    private class RecordingOutput : ExtractorOutput, TrackOutput {
+        val timesUs = ArrayList<Long>()
+        var seekMap: SeekMap? = null
+        private val scratch = ByteArray(4096)
+
+        override fun track(id: Int, type: Int): TrackOutput = this
+
+        override fun endTracks() {}
+
+        override fun seekMap(seekMap: SeekMap) {
+            this.seekMap = seekMap
+        }
+
+        override fun format(format: Format) {}
+
+        override fun sampleData(input: ExtractorInput, length: Int, allowEndOfInput: Boolean): Int {
+            val read = input.read(scratch, 0, minOf(length, scratch.size))
+            if (read == C.RESULT_END_OF_INPUT && !allowEndOfInput) throw EOFException()
+            return read
+        }
+
+        override fun sampleData(data: ParsableByteArray, length: Int) = data.skipBytes(length)
+
+        override fun sampleMetadata(
+            timeUs: Long,
+            flags: Int,
+            size: Int,
+            offset: Int,
+            cryptoData: TrackOutput.CryptoData?
+        ) {
+            timesUs += timeUs
+        }
+    }
+
+    private class ByteArraySource(private val bytes: ByteArray, private var position: Int) : DataSource {
+
+        override fun addTransferListener(transferListener: TransferListener) {}
+
+        override fun open(dataSpec: DataSpec): Long = throw UnsupportedOperationException()
+
+        override fun read(buffer: ByteArray, offset: Int, readLength: Int): Int {
+            if (position == bytes.size) return C.RESULT_END_OF_INPUT
+            val length = minOf(readLength, bytes.size - position)
+            bytes.copyInto(buffer, offset, position, position + length)
+            position += length
+            return length
+        }
+
+        override fun getUri(): Uri? = null
+
+        override fun close() {}
+    }
+}
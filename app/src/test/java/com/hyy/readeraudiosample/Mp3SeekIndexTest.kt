@@ -0,0 +1,118 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Local unit test for [Mp3SeekIndex], on a [SyntheticMp3].
+ */
+class Mp3SeekIndexTest {
+
+    private lateinit var framePositions: List<Long>
+
+    private fun buildFile(audioFrames: Int): ByteArray {
+        val mp3 = SyntheticMp3(audioFrames)
+        framePositions = mp3.framePositions
+        return mp3.bytes
+    }
+
+    private fun timeUs(frame: Int) = SyntheticMp3.timeUs(frame)
+
+    @Test
+    fun builder_indexesAudioFramesOnly() {
+        val bytes = buildFile(1000)
+        val index = Mp3SeekIndex.Builder().run {
+            feed(bytes, 0, bytes.size)
+            build()
+        }!!
+
+        assertEquals(framePositions[0], index.positionAt(0))
+        assertEquals(0, index.timeUsAt(0))
+        assertEquals(timeUs(1000), index.durationUs)
+        assertEquals(bytes.size - 128L, index.dataEndPosition)
+        // One entry per second of audio, each on the first frame at or after it.
+        assertEquals(27, index.size)
+        for (entry in 0 until index.size) {
+            val frame = framePositions.indexOf(index.positionAt(entry))
+            assertEquals(timeUs(frame), index.timeUsAt(entry))
+            assertTrue(timeUs(frame) >= entry * 1_000_000L && timeUs(frame - 1) < entry * 1_000_000L)
+        }
+    }
+
+    @Test
+    fun builder_doesNotDependOnChunking() {
+        val bytes = buildFile(300)
+        val whole = Mp3SeekIndex.Builder().run {
+            feed(bytes, 0, bytes.size)
+            build()
+        }!!
+        for (chunk in intArrayOf(1, 3, 7, 4096)) {
+            val builder = Mp3SeekIndex.Builder()
+            var offset = 0
+            while (offset < bytes.size) {
+                val length = minOf(chunk, bytes.size - offset)
+                builder.feed(bytes, offset, length)
+                offset += length
+            }
+            assertEquals(whole.toByteArray().toList(), builder.build()!!.toByteArray().toList())
+        }
+    }
+
+    @Test
+    fun entryFor_findsLastEntryAtOrBefore() {
+        val bytes = buildFile(1000)
+        val index = Mp3SeekIndex.Builder().run {
+            feed(bytes, 0, bytes.size)
+            build()
+        }!!
+        assertEquals(0, index.entryFor(-1))
+        assertEquals(0, index.entryFor(999_999))
+        assertEquals(10, index.entryFor(index.timeUsAt(10)))
+        assertEquals(10, index.entryFor(index.timeUsAt(11) - 1))
+        assertEquals(index.size - 1, index.entryFor(Long.MAX_VALUE))
+    }
+
+    @Test
+    fun entryAt_findsEntryStartingAtPosition() {
+        val bytes = buildFile(1000)
+        val index = Mp3SeekIndex.Builder().run {
+            feed(bytes, 0, bytes.size)
+            build()
+        }!!
+        assertEquals(0, index.entryAt(framePositions[0]))
+        assertEquals(10, index.entryAt(index.positionAt(10)))
+        assertEquals(-1, index.entryAt(0))
+        assertEquals(-1, index.entryAt(index.positionAt(10) + 1))
+        assertEquals(-1, index.entryAt(bytes.size.toLong()))
+    }
+
+    @Test
+    fun byteArray_roundTrips() {
+        val bytes = buildFile(1000)
+        val index = Mp3SeekIndex.Builder().run {
+            feed(bytes, 0, bytes.size)
+            build()
+        }!!
+        val read = Mp3SeekIndex.fromByteArray(index.toByteArray())
+        assertNotNull(read)
+        assertEquals(index.size, read!!.size)
+        assertEquals(index.durationUs, read.durationUs)
+        assertEquals(index.dataEndPosition, read.dataEndPosition)
+        for (entry in 0 until index.size) {
+            assertEquals(index.timeUsAt(entry), read.timeUsAt(entry))
+            assertEquals(index.positionAt(entry), read.positionAt(entry))
+        }
+        assertNull(Mp3SeekIndex.fromByteArray(ByteArray(8)))
+        assertNull(Mp3SeekIndex.fromByteArray(index.toByteArray().copyOf(40)))
+    }
+
+    @Test
+    fun builder_withoutFrames_buildsNothing() {
+        val builder = Mp3SeekIndex.Builder()
+        builder.feed(ByteArray(4096), 0, 4096)
+        assertNull(builder.build())
+    }
+}
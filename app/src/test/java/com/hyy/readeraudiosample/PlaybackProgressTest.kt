@@ -0,0 +1,86 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Local unit test for [PlaybackProgress], including that its share of a tick, extrapolating the
+ * position and rewriting the label, allocates nothing. The scheduling around it in
+ * [PlaybackPositionLiveData] needs the main looper and isn't covered here.
+ */
+class PlaybackProgressTest {
+
+    @Test
+    fun formatMss_matchesDurationFormat() {
+        val out = CharArray(11)
+        for (second in listOf(0, 5, 59, 60, 61, 599, 600, 3599, 3600, 36000, Int.MAX_VALUE)) {
+            val length = PlaybackProgress.formatMss(second, out)
+            assertEquals("%d:%02d".format(second / 60, second % 60), String(out, 0, length))
+        }
+        val length = PlaybackProgress.formatMss(PlaybackProgress.UNKNOWN_SECOND, out)
+        assertEquals("--:--", String(out, 0, length))
+    }
+
+    @Test
+    fun update_rewritesTextOnlyWhenSecondChanges() {
+        val progress = PlaybackProgress()
+        assertTrue(progress.update(61_000))
+        assertEquals("1:01", String(progress.text, 0, progress.textLength))
+        assertFalse(progress.update(61_999))
+        assertEquals(61, progress.second)
+        assertTrue(progress.update(62_000))
+        assertEquals("1:02", String(progress.text, 0, progress.textLength))
+    }
+
+    @Test
+    fun extrapolate_followsSpeedOnlyWhilePlaying() {
+        assertEquals(13_000, PlaybackProgress.extrapolate(10_000, 1_000, 1.5f, true, 3_000))
+        assertEquals(10_000, PlaybackProgress.extrapolate(10_000, 1_000, 1.5f, false, 3_000))
+    }
+
+    @Test
+    fun tick_doesNotAllocateInSteadyState() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+        threads!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+        val progress = PlaybackProgress()
+
+        // Let class loading and JIT compilation happen before measuring.
+        var now = tick(progress, 0L, WARMUP_TICKS)
+
+        // Reading the counter may itself allocate; measure that and take it out.
+        val overheadStart = threads.getThreadAllocatedBytes(threadId)
+        val overhead = threads.getThreadAllocatedBytes(threadId) - overheadStart
+
+        val start = threads.getThreadAllocatedBytes(threadId)
+        now = tick(progress, now, MEASURED_TICKS)
+        val allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead
+
+        assertTrue(now > 0)
+        assertEquals("bytes allocated over $MEASURED_TICKS ticks", 0L, allocated)
+    }
+
+    /**
+     * Runs [count] frame ticks at 1.5x speed, each one extrapolating the position and updating
+     * [progress] the way the position ticker does.
+     */
+    private fun tick(progress: PlaybackProgress, startMs: Long, count: Int): Long {
+        var now = startMs
+        for (i in 0 until count) {
+            now += FRAME_MS
+            progress.update(PlaybackProgress.extrapolate(0, 0, 1.5f, true, now))
+        }
+        return now
+    }
+
+    companion object {
+        private const val FRAME_MS = 16L
+        private const val WARMUP_TICKS = 200_000
+        private const val MEASURED_TICKS = 100_000
+    }
+}
@@ -0,0 +1,172 @@
+package com.hyy.readeraudiosample
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Local unit test for [StandbyPlayers]. The decks are fakes on a fake clock that take
+ * [PREPARE_MS] to become ready after a load, like a player sniffing, setting up its codec and
+ * buffering; a chapter switch is as late as the time from the boundary to the new deck being
+ * audible.
+ */
+class StandbyPlayersTest {
+
+    private var nowMs = 0L
+    private var chapterCount = 10
+    private var audibleDecks = 0
+    private var maxAudibleDecks = 0
+    private val started = ArrayList<Int>()
+
+    private inner class FakeDeck(val name: String) : StandbyPlayers.Deck {
+        var chapterIndex = StandbyPlayers.NO_CHAPTER
+        var positionMs = 0L
+        var readyAtMs = Long.MAX_VALUE
+        //最近一次开始出声的时间
+        var audibleAtMs = Long.MAX_VALUE
+
+        override var playWhenReady = false
+            set(value) {
+                if (value == field) return
+                field = value
+                if (value) {
+                    audibleAtMs = maxOf(nowMs, readyAtMs)
+                    maxAudibleDecks = maxOf(maxAudibleDecks, ++audibleDecks)
+                } else {
+                    audibleDecks--
+                }
+            }
+
+        override fun load(chapterIndex: Int, positionMs: Long) {
+            this.chapterIndex = chapterIndex
+            this.positionMs = positionMs
+            readyAtMs = nowMs + PREPARE_MS
+        }
+
+        override fun seekTo(positionMs: Long) {
+            this.positionMs = positionMs
+        }
+
+        override fun unload() {
+            chapterIndex = StandbyPlayers.NO_CHAPTER
+            readyAtMs = Long.MAX_VALUE
+        }
+
+        override fun toString(): String = name
+    }
+
+    private val first = FakeDeck("first")
+    private val second = FakeDeck("second")
+    private val players = StandbyPlayers(first, second, { chapterCount }) { _, _, chapterIndex ->
+        started += chapterIndex
+    }
+
+    /**
+     * Time from a chapter boundary at [nowMs] to the chapter after it being heard.
+     */
+    private fun switchLatencyMs(switch: () -> Unit): Long {
+        val boundaryMs = nowMs
+        switch()
+        return players.active.audibleAtMs - boundaryMs
+    }
+
+    @Test
+    fun chapterEnd_switchesToStandbyWithoutLatency() {
+        players.play(3, 0, playWhenReady = true)
+        assertEquals(PREPARE_MS, first.audibleAtMs)
+        assertEquals(4, second.chapterIndex)
+
+        nowMs += 60_000
+        val latencyMs = switchLatencyMs { assertTrue(players.advance()) }
+
+        assertEquals(0, latencyMs)
+        assertSame(second, players.active)
+        assertEquals(4, players.activeChapter)
+        assertFalse(first.playWhenReady)
+        // The deck that just finished holds the chapter after next.
+        assertEquals(5, first.chapterIndex)
+        assertEquals(5, players.standbyChapter)
+        assertEquals(listOf(3, 4), started)
+        assertEquals(1, players.warmSwitches)
+    }
+
+    @Test
+    fun skipNext_isAsFastAsChapterEnd() {
+        players.play(0, 0, playWhenReady = true)
+        for (chapter in 1..5) {
+            nowMs += 2 * PREPARE_MS
+            assertEquals(0, switchLatencyMs { players.advance() })
+            assertEquals(chapter, players.activeChapter)
+            assertTrue(players.active.playWhenReady)
+        }
+        assertEquals(1, maxAudibleDecks)
+    }
+
+    @Test
+    fun skipNext_beforeStandbyIsReady_waitsForTheRest() {
+        players.play(0, 0, playWhenReady = true)
+        nowMs += 2 * PREPARE_MS
+        players.advance()
+        // The standby deck only just started loading chapter 2.
+        nowMs += PREPARE_MS / 4
+        assertEquals(PREPARE_MS * 3 / 4, switchLatencyMs { players.advance() })
+    }
+
+    @Test
+    fun playOtherChapter_loadsActiveDeckCold() {
+        players.play(0, 0, playWhenReady = true)
+        nowMs += 2 * PREPARE_MS
+        assertEquals(PREPARE_MS, switchLatencyMs { players.play(7, 1_000, playWhenReady = true) })
+        assertSame(first, players.active)
+        assertEquals(1_000, first.positionMs)
+        assertEquals(8, second.chapterIndex)
+        assertEquals(2, players.coldSwitches)
+
+        nowMs += 2 * PREPARE_MS
+        players.play(8, 5_000, playWhenReady = false)
+        assertSame(second, players.active)
+        assertEquals(5_000, second.positionMs)
+        assertFalse(second.playWhenReady)
+        assertFalse(first.playWhenReady)
+    }
+
+    @Test
+    fun queueChange_keepsStandbyOnlyIfStillNext() {
+        players.play(2, 0, playWhenReady = true)
+        nowMs += 2 * PREPARE_MS
+        // A chapter inserted before the current one moves both along.
+        chapterCount++
+        players.onQueueChanged(3, 4)
+        assertEquals(4, players.standbyChapter)
+        assertEquals(PREPARE_MS, second.readyAtMs)
+        assertEquals(0, switchLatencyMs { players.advance() })
+        assertEquals(4, players.activeChapter)
+
+        nowMs += 2 * PREPARE_MS
+        // One inserted right after the current one comes next instead.
+        chapterCount++
+        players.onQueueChanged(4, 6)
+        assertEquals(5, first.chapterIndex)
+        assertEquals(PREPARE_MS, switchLatencyMs { players.advance() })
+    }
+
+    @Test
+    fun lastChapter_hasNoStandby() {
+        chapterCount = 3
+        players.play(1, 0, playWhenReady = true)
+        nowMs += 2 * PREPARE_MS
+        assertTrue(players.advance())
+        assertEquals(StandbyPlayers.NO_CHAPTER, players.standbyChapter)
+        assertEquals(StandbyPlayers.NO_CHAPTER, first.chapterIndex)
+        assertFalse(players.advance())
+        assertEquals(2, players.activeChapter)
+        assertNotSame(first, players.active)
+    }
+
+    companion object {
+        private const val PREPARE_MS = 400L
+    }
+}
@@ -0,0 +1,55 @@
+package com.hyy.readeraudiosample
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * A synthetic VBR MP3 file for tests: an ID3v2 tag, a Xing frame, [audioFrames] audio frames of
+ * changing bitrate and an ID3v1 trailer. MPEG-1 layer III, 44.1 kHz, joint stereo: 1152 samples
+ * per frame. The payloads are all zero.
+ */
+class SyntheticMp3(audioFrames: Int) {
+
+    private val file = ByteArrayOutputStream()
+    private val positions = ArrayList<Long>()
+
+    val bytes: ByteArray
+
+    /** Where each audio frame starts. */
+    val framePositions: List<Long> get() = positions
+
+    init {
+        file.write(byteArrayOf('I'.toByte(), 'D'.toByte(), '3'.toByte(), 4, 0, 0, 0, 0, 1, 5))
+        file.write(ByteArray(133))
+        writeFrame(9, "Xing")
+        for (i in 0 until audioFrames) {
+            positions += file.size().toLong()
+            writeFrame(BITRATE_INDICES[i % BITRATE_INDICES.size])
+        }
+        file.write("TAG".toByteArray())
+        file.write(ByteArray(125))
+        bytes = file.toByteArray()
+    }
+
+    fun index(): Mp3SeekIndex = Mp3SeekIndex.Builder().run {
+        feed(bytes, 0, bytes.size)
+        build()
+    }!!
+
+    private fun writeFrame(bitrateIndex: Int, tag: String? = null) {
+        val frame = ByteArray(frameSize(bitrateIndex))
+        val header = 0xFFFB0040.toInt() or (bitrateIndex shl 12)
+        for (i in 0..3) frame[i] = (header ushr (24 - 8 * i)).toByte()
+        tag?.toByteArray()?.copyInto(frame, 36)
+        file.write(frame)
+    }
+
+    companion object {
+        private val BITRATE_INDICES = intArrayOf(5, 9, 11, 14, 7)
+        private val KBPS = intArrayOf(0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320)
+
+        private fun frameSize(bitrateIndex: Int) = 144 * KBPS[bitrateIndex] * 1000 / 44100
+
+        /** When audio frame [frame] starts. */
+        fun timeUs(frame: Int) = frame * 1152L * 1_000_000 / 44100
+    }
+}
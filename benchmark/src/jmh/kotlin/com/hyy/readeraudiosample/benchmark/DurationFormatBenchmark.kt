@@ -0,0 +1,42 @@
+package com.hyy.readeraudiosample.benchmark
+
+import com.hyy.readeraudiosample.PlaybackProgress
+import com.hyy.readeraudiosample.toSeconds
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Turning a duration into text and seconds, once per chapter and once per displayed second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class DurationFormatBenchmark {
+
+    private val text = CharArray(11)
+    private var durationMs = 429_000L
+
+    /**
+     * `NowPlayingMetadata.timestampToMSS` without the resource lookup, which needs a Context: the
+     * same arithmetic and the same "%d:%02d" format it reads from R.string.duration_format.
+     */
+    @Benchmark
+    fun timestampToMss(): String {
+        val position = ++durationMs
+        val totalSeconds = Math.floor(position / 1E3).toInt()
+        val minutes = totalSeconds / 60
+        val remainingSeconds = totalSeconds - (minutes * 60)
+        return "%d:%02d".format(minutes, remainingSeconds)
+    }
+
+    @Benchmark
+    fun formatMss(): Int = PlaybackProgress.formatMss(PlaybackProgress.secondOf(++durationMs), text)
+
+    @Benchmark
+    fun toSeconds(): Int = (++durationMs).toSeconds
+}
@@ -0,0 +1,62 @@
+package com.hyy.readeraudiosample.benchmark
+
+import com.hyy.readeraudiosample.ChapterIndex
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Looking up and inserting chapters in the [ChapterIndex] behind the playlist, for a short book,
+ * a long one and a serial. Inserts are undone in the same call, so the size stays [chapters].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PlaylistBenchmark {
+
+    // ChapterAudioItem is Parcelable, so the benchmark uses a plain stand-in with the same key.
+    class Chapter(val id: String)
+
+    @Param("10", "1000", "100000")
+    var chapters = 0
+
+    private lateinit var index: ChapterIndex<Chapter>
+    private lateinit var ids: Array<String>
+    private lateinit var extra: List<Chapter>
+    private var next = 0
+
+    @Setup
+    fun setUp() {
+        index = ChapterIndex { it.id }
+        ids = Array(chapters) { (10_000_000 + it).toString() }
+        index.addAll(ids.map { Chapter(it) })
+        extra = listOf(Chapter("extra"))
+    }
+
+    @Benchmark
+    fun indexOf(): Int {
+        next = (next + 1) % chapters
+        return index.indexOf(ids[next])
+    }
+
+    @Benchmark
+    fun appendAndRemove(): Int {
+        index.addAll(index.size, extra)
+        index.removeAt(index.size - 1)
+        return index.size
+    }
+
+    @Benchmark
+    fun insertMiddleAndRemove(): Int {
+        val middle = index.size / 2
+        index.addAll(middle, extra)
+        index.removeAt(middle)
+        return index.size
+    }
+}
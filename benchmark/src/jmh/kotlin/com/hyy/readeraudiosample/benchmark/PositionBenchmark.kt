@@ -0,0 +1,44 @@
+package com.hyy.readeraudiosample.benchmark
+
+import com.hyy.readeraudiosample.PlaybackProgress
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * What runs on every progress tick: extrapolating the session position, as
+ * `PlaybackStateCompat.currentPlayBackPosition` does, and moving [PlaybackProgress] to it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class PositionBenchmark {
+
+    private val progress = PlaybackProgress()
+
+    //每次调用前进一帧，和 16ms 一次的 tick 一样
+    private var nowMs = 0L
+
+    @Benchmark
+    fun extrapolate(): Long {
+        nowMs += FRAME_MS
+        return PlaybackProgress.extrapolate(POSITION_MS, 0L, SPEED, true, nowMs)
+    }
+
+    @Benchmark
+    fun tick(): Int {
+        nowMs += FRAME_MS
+        progress.update(PlaybackProgress.extrapolate(POSITION_MS, 0L, SPEED, true, nowMs))
+        return progress.textLength
+    }
+
+    private companion object {
+        const val FRAME_MS = 16L
+        const val POSITION_MS = 61_000L
+        const val SPEED = 1.5f
+    }
+}
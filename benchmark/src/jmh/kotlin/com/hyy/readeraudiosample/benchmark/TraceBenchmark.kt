@@ -0,0 +1,34 @@
+package com.hyy.readeraudiosample.benchmark
+
+import com.hyy.readeraudiosample.EventRing
+import com.hyy.readeraudiosample.Histogram
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * The per-event cost of the diagnostics that stay on in release builds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class TraceBenchmark {
+
+    private val ring = EventRing()
+    private val histogram = Histogram(Histogram.exponentialBounds(25, 2, 11))
+    private var value = 0L
+
+    @Benchmark
+    fun recordEvent() {
+        ring.record(EventRing.DISCONTINUITY, ++value, 3, value, 1)
+    }
+
+    @Benchmark
+    fun recordHistogram() {
+        histogram.record(++value and 0x3FFF)
+    }
+}